@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class ImageRenditionBusyException extends RuntimeException {
+
+    private String message;
+
+    public ImageRenditionBusyException() {
+    }
+
+    public ImageRenditionBusyException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.spark_project.exception;
+
+public class ImageStorageException extends RuntimeException {
+
+    private String message;
+
+    public ImageStorageException() {
+    }
+
+    public ImageStorageException(String message) {
+        super(message);
+        this.message = message;
+    }
+
+    public ImageStorageException(String message, Throwable cause) {
+        super(message, cause);
+        this.message = message;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class ImageUploadNotFoundException extends RuntimeException {
+
+    private String message;
+
+    public ImageUploadNotFoundException() {
+    }
+
+    public ImageUploadNotFoundException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
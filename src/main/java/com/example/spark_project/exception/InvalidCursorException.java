@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class InvalidCursorException extends RuntimeException {
+
+    private String message;
+
+    public InvalidCursorException() {
+    }
+
+    public InvalidCursorException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class InvalidImageUploadException extends RuntimeException {
+
+    private String message;
+
+    public InvalidImageUploadException() {
+    }
+
+    public InvalidImageUploadException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class InvalidRenditionException extends RuntimeException {
+
+    private String message;
+
+    public InvalidRenditionException() {
+    }
+
+    public InvalidRenditionException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
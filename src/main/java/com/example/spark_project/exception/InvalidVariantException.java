@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class InvalidVariantException extends RuntimeException {
+
+    private String message;
+
+    public InvalidVariantException() {
+    }
+
+    public InvalidVariantException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class PasswordHashingBusyException extends RuntimeException {
+
+    private String message;
+
+    public PasswordHashingBusyException() {
+    }
+
+    public PasswordHashingBusyException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
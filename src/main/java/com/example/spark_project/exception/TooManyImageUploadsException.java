@@ -0,0 +1,14 @@
+package com.example.spark_project.exception;
+
+public class TooManyImageUploadsException extends RuntimeException {
+
+    private String message;
+
+    public TooManyImageUploadsException() {
+    }
+
+    public TooManyImageUploadsException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
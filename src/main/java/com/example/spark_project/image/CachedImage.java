@@ -0,0 +1,10 @@
+package com.example.spark_project.image;
+
+//Image metadata of a user (owner is the email), together with its bytes once they were read,
+//data stays null for images too big to be kept on the heap
+public record CachedImage(String owner, Image image, byte[] data) {
+
+    public CachedImage withData(byte[] data) {
+        return new CachedImage(owner, image, data);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageStorageException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+//Blobs are written to <location>/<first 2 hex chars>/<next 2 hex chars>/<sha-256>,
+//so a single directory never ends up with millions of files
+@Component
+public class FileSystemImageStore implements ImageStore {
+
+    private final Path root;
+    private final Path tempDir;
+
+    public FileSystemImageStore(@Value("${image.storage.location}") String location) {
+        this.root = Paths.get(location).toAbsolutePath().normalize();
+        this.tempDir = root.resolve("tmp");
+        try {
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not create image storage directory " + root, e);
+        }
+    }
+
+    @Override
+    public StoredContent put(InputStream content) {
+        Path temp = null;
+        try {
+            //hash is not known until the whole stream is read, so content goes to a temp file first
+            //and is moved in place afterwards, readers never see a half written blob
+            temp = Files.createTempFile(tempDir, "upload", ".tmp");
+            MessageDigest digest = sha256();
+            long size;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                size = content.transferTo(out);
+            }
+
+            String key = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(key);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    //another upload with the same content won the race, content is identical so that is fine
+                }
+            }
+            return new StoredContent(key, size);
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not store image", e);
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    //Hashes the file in place and moves it into the store, the bytes are not copied. The file is not shared
+    //with the store (a hard link would let anyone still writing to it change the stored blob), so it is gone
+    //afterwards, or left for the caller to delete if the same content is stored already.
+    //Falls back to a copy where the file can't be moved, e.g. from another file system
+    @Override
+    public StoredContent put(Path file) {
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                size = in.transferTo(OutputStream.nullOutputStream());
+            }
+
+            String key = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(key);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    try (InputStream content = Files.newInputStream(file)) {
+                        return put(content);
+                    }
+                }
+            }
+            return new StoredContent(key, size);
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not store image", e);
+        }
+    }
+
+    @Override
+    public Resource get(String key) {
+        Path path = resolve(key);
+        if (!Files.isReadable(path)) {
+            throw new ImageStorageException("Image content " + key + " is missing from storage");
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void delete(String key) {
+        Path path = resolve(key);
+        try {
+            Files.deleteIfExists(path);
+            if (Files.isDirectory(path.getParent())) {
+                try (DirectoryStream<Path> variants = Files.newDirectoryStream(path.getParent(), key + ".*")) {
+                    for (Path variant : variants) {
+                        Files.deleteIfExists(variant);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not delete image " + key, e);
+        }
+    }
+
+    //variants are stored as <content>.<variant> in the directory of the content
+    @Override
+    public void putVariant(String key, String variant, InputStream content) {
+        Path target = resolveVariant(key, variant);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(tempDir, "variant", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                content.transferTo(out);
+            }
+            Files.createDirectories(target.getParent());
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not store " + variant + " of image " + key, e);
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    @Override
+    public Optional<Resource> getVariant(String key, String variant) {
+        Path path = resolveVariant(key, variant);
+        return Files.isReadable(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    private Path resolve(String key) {
+        if (key.length() != 64 || !key.chars().allMatch(HexFormat::isHexDigit)) {
+            throw new ImageStorageException("Invalid image key " + key);
+        }
+        return root.resolve(key.substring(0, 2))
+                .resolve(key.substring(2, 4))
+                .resolve(key);
+    }
+
+    private Path resolveVariant(String key, String variant) {
+        if (variant.isEmpty() || !variant.chars().allMatch(c -> (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))) {
+            throw new ImageStorageException("Invalid image variant " + variant);
+        }
+        return resolve(key).resolveSibling(key + "." + variant);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+}
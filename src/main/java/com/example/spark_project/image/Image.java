@@ -2,10 +2,7 @@ package com.example.spark_project.image;
 
 import com.example.spark_project.user.User;
 import jakarta.persistence.*;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.*;
 
 import java.time.LocalDateTime;
 
@@ -15,15 +12,22 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @Entity
 @Table(
-        name = "image"
+        name = "image",
+        //indexes for keyset pagination (ImageRepositoryCustom.findPage), one per supported order
+        indexes = {
+                @Index(name = "image_user_created_at_idx", columnList = "user_email, created_at, id"),
+                @Index(name = "image_user_size_idx", columnList = "user_email, size, id")
+        }
 )
 public class Image {
 
+    //ids are taken from the sequence 50 at a time (pooled optimizer), so batched inserts
+    //don't need a round trip per row, the sequence has to be created with increment 50
     @Id
     @SequenceGenerator(
             name = "image_id_sequence",
             sequenceName = "image_id_sequence",
-            allocationSize = 1
+            allocationSize = 50
     )
     @GeneratedValue(
             strategy = GenerationType.SEQUENCE,
@@ -47,11 +51,13 @@ public class Image {
     )
     private String mimeType;
 
+    //sha-256 of the content, key of the image in ImageStore,
+    //null for images uploaded before ImageStore whose bytes are still in the data column (see ImageData)
     @Column(
-            name = "data",
-            nullable = false
+            name = "content_hash",
+            length = 64
     )
-    private byte[] data;
+    private String contentHash;
 
     //in bytes
     @Column(
@@ -66,7 +72,13 @@ public class Image {
     )
     private LocalDateTime createdAt;
 
-    @ManyToOne
+    //excluded from equals/hashCode/toString, otherwise they would load the user
+    //(and through User.images every other image of the user)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    @ManyToOne(
+            fetch = FetchType.LAZY
+    )
     @JoinColumn(
             name = "user_email",
             nullable = false,
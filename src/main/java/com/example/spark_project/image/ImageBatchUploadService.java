@@ -0,0 +1,144 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.FileNotAnImageException;
+import com.example.spark_project.exception.ImageStorageException;
+import com.example.spark_project.security.AuthenticatedUser;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+//Bulk path of /upload_multi. Existing filenames are checked once for the whole batch,
+//files are hashed and stored in parallel on a bounded pool (the uploading thread helps out when its queue is full)
+//and the image rows are inserted in one transaction. Every file gets its own result, one bad file
+//doesn't fail the others
+@Service
+public class ImageBatchUploadService {
+
+    private final ImageService imageService;
+    private final ImageRepository imageRepository;
+    private final ImageStore imageStore;
+    private final ThreadPoolExecutor executor;
+
+    public ImageBatchUploadService(
+            ImageService imageService,
+            ImageRepository imageRepository,
+            ImageStore imageStore,
+            @Value("${image.ingest.threads:4}") int threads,
+            @Value("${image.ingest.queue-size:100}") int queueSize
+    ) {
+        this.imageService = imageService;
+        this.imageRepository = imageRepository;
+        this.imageStore = imageStore;
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("image-ingest-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    //results are in the order of the files
+    public List<ImageUploadResult> uploadImages(List<MultipartFile> files, AuthenticatedUser user) {
+        ImageUploadResult[] results = new ImageUploadResult[files.size()];
+        ImageFormat[] formats = new ImageFormat[files.size()];
+        Set<String> filenames = new HashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            var file = files.get(i);
+            //only the first bytes of each file are read here, non-images are never hashed or stored
+            try {
+                formats[i] = ImageService.sniffFormat(file);
+            } catch (FileNotAnImageException e) {
+                results[i] = failure(file, e.getMessage());
+                continue;
+            } catch (IOException e) {
+                results[i] = failure(file, "Could not read image");
+                continue;
+            }
+            if (file.getOriginalFilename() == null || file.getOriginalFilename().isBlank()) {
+                results[i] = failure(file, "File has no filename");
+            } else if (!filenames.add(file.getOriginalFilename())) {
+                results[i] = failure(file, "Image with that filename is already in this upload");
+            }
+        }
+
+        Set<String> existing = filenames.isEmpty()
+                ? Set.of()
+                : new HashSet<>(imageRepository.findExistingFilenames(user.email(), filenames));
+
+        Map<Integer, Future<StoredContent>> stored = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            var file = files.get(i);
+            if (results[i] != null) {
+                continue;
+            }
+            if (existing.contains(file.getOriginalFilename())) {
+                results[i] = failure(file, "Image with that filename already exists");
+                continue;
+            }
+            stored.put(i, executor.submit(() -> putContent(file)));
+        }
+
+        List<Integer> positions = new ArrayList<>(stored.size());
+        List<StoredUpload> uploads = new ArrayList<>(stored.size());
+        for (var entry : stored.entrySet()) {
+            var file = files.get(entry.getKey());
+            try {
+                uploads.add(new StoredUpload(file, formats[entry.getKey()], entry.getValue().get()));
+                positions.add(entry.getKey());
+            } catch (ExecutionException e) {
+                results[entry.getKey()] = failure(file, "Could not store image");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ImageStorageException("Upload was interrupted", e);
+            }
+        }
+
+        if (!uploads.isEmpty()) {
+            try {
+                List<ImageResponse> images = imageService.saveUploads(user, uploads);
+                for (int i = 0; i < images.size(); i++) {
+                    results[positions.get(i)] = ImageUploadResult.builder()
+                            .filename(images.get(i).getFilename())
+                            .success(true)
+                            .image(images.get(i))
+                            .build();
+                }
+            } catch (RuntimeException | IOException e) {
+                //rows are inserted in a single transaction, nothing of this batch was saved
+                positions.forEach(position -> results[position] = failure(files.get(position), "Could not save image"));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    //streams the file into the store, hash is computed on the way
+    private StoredContent putContent(MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            return imageStore.put(content);
+        }
+    }
+
+    private static ImageUploadResult failure(MultipartFile file, String error) {
+        return ImageUploadResult.builder()
+                .filename(file.getOriginalFilename())
+                .success(false)
+                .error(error)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.spark_project.image;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+//One row per blob in ImageStore. Images of every user with the same content share the blob,
+//refCount is the number of image rows pointing to it and the blob is deleted when it drops to 0
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "image_blob"
+)
+public class ImageBlob {
+
+    //sha-256 of the content, same as Image.contentHash
+    @Id
+    @Column(
+            name = "content_hash",
+            length = 64,
+            updatable = false
+    )
+    private String contentHash;
+
+    //in bytes
+    @Column(
+            name = "size",
+            nullable = false
+    )
+    private Long size;
+
+    //of the first upload, images created from the hash alone (see ImageService.preflightImage) get it
+    @Column(
+            name = "mime_type",
+            nullable = false
+    )
+    private String mimeType;
+
+    @Column(
+            name = "ref_count",
+            nullable = false
+    )
+    private Long refCount;
+}
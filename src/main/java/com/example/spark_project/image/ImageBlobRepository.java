@@ -0,0 +1,31 @@
+package com.example.spark_project.image;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+//Reference counts are changed with update statements, the row lock they take serializes
+//concurrent uploads and deletes of the same content until the transaction ends
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    //0 if there is no row for the content yet
+    @Transactional
+    @Modifying
+    @Query("update ImageBlob b set b.refCount = b.refCount + 1 where b.contentHash = :contentHash")
+    int incrementRefCount(@Param("contentHash") String contentHash);
+
+    @Transactional
+    @Modifying
+    @Query("update ImageBlob b set b.refCount = b.refCount - 1 where b.contentHash = :contentHash")
+    int decrementRefCount(@Param("contentHash") String contentHash);
+
+    //1 if the row was deleted, the blob itself has to be removed from ImageStore then
+    @Transactional
+    @Modifying
+    @Query("delete from ImageBlob b where b.contentHash = :contentHash and b.refCount <= 0")
+    int deleteUnreferenced(@Param("contentHash") String contentHash);
+}
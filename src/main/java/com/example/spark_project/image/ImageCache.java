@@ -0,0 +1,77 @@
+package com.example.spark_project.image;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.util.function.Supplier;
+
+//Read-through cache of hot images keyed by (user, filename).
+//Caffeine admits entries with W-TinyLFU, so a one-off scan over many images does not push out
+//the frequently read ones. The cache is bounded by the bytes it holds, not by the number of entries
+@Component
+public class ImageCache {
+
+    //rough size of the Image entity and the key, so metadata only entries are not free
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final Cache<Key, CachedImage> cache;
+    private final long maxEntrySize;
+
+    public ImageCache(
+            @Value("${image.cache.max-size:64MB}") DataSize maxSize,
+            @Value("${image.cache.max-entry-size:1MB}") DataSize maxEntrySize
+    ) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((Key key, CachedImage image) -> weigh(image))
+                .build();
+        this.maxEntrySize = maxEntrySize.toBytes();
+    }
+
+    //loader runs at most once per key at a time, exceptions it throws are passed on and nothing is cached
+    public CachedImage get(String email, String filename, Supplier<CachedImage> loader) {
+        return cache.get(new Key(email, filename), key -> loader.get());
+    }
+
+    //Adds the bytes to the entry the metadata came from. Nothing happens if that entry was invalidated
+    //or reloaded in the meantime, stale content is never put back
+    public void putContent(CachedImage image, byte[] data) {
+        cache.asMap().computeIfPresent(
+                new Key(image.owner(), image.image().getFilename()),
+                (key, cached) -> cached.image() == image.image() ? image.withData(data) : cached
+        );
+    }
+
+    //images bigger than this are cached without their bytes and served from the ImageStore
+    public boolean fitsContent(long size) {
+        return size <= maxEntrySize;
+    }
+
+    //Removes the entry now and, inside a transaction, once more after it completes,
+    //otherwise a concurrent read could load the old row again before the change is committed
+    public void invalidate(String email, String filename) {
+        Key key = new Key(email, filename);
+        cache.invalidate(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(key);
+                }
+            });
+        }
+    }
+
+    private static int weigh(CachedImage image) {
+        int size = image.data() == null ? 0 : image.data().length;
+        return size + image.image().getFilename().length() + ENTRY_OVERHEAD;
+    }
+
+    private record Key(String email, String filename) {
+    }
+}
@@ -1,16 +1,27 @@
 package com.example.spark_project.image;
 
+import com.example.spark_project.exception.InvalidRenditionException;
+import com.example.spark_project.security.AuthenticatedUser;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
 
 @RestController
@@ -18,93 +29,292 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ImageController {
 
+    //request attributes tomcat uses for sendfile (see org.apache.catalina.servlets.DefaultServlet)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    //same threshold as DefaultServlet, for smaller files setting up sendfile costs more than copying
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    //CacheControl in this spring version has no immutable()
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    //Content behind a filename can change, clients may keep it but have to revalidate (If-None-Match) every time.
+    //Without an explicit value spring security adds no-store and clients would never keep the body
+    private static final String REVALIDATE_CACHE_CONTROL = CacheControl.noCache().cachePrivate().getHeaderValue();
+    //client hint for reduced data usage (https://wicg.github.io/savedata/)
+    private static final String SAVE_DATA = "Save-Data";
+
     private final ImageService service;
+    private final ImageUploadService uploadService;
+    private final ImageBatchUploadService batchUploadService;
 
     @GetMapping("/{filename}")
     public ResponseEntity<Resource> getImage(
             @PathVariable String filename,
-            @RequestHeader("Authorization") String bearerToken
-    ) {
-        var image = service.getImage(filename, bearerToken);
-        var body = new ByteArrayResource(image.getData());
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, image.getMimeType())
-                .body(body);
+            @RequestParam(required = false) String variant,
+            @RequestParam(required = false) Integer w,
+            @RequestParam(required = false) Integer h,
+            @RequestParam(required = false) Integer q,
+            @AuthenticationPrincipal AuthenticatedUser user,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        var imageVariant = ImageVariant.fromName(variant);
+        var rendition = rendition(w, h, q, request);
+        return imageContent(service.getImage(filename, user), imageVariant, rendition, request, response);
     }
 
     @GetMapping("/search")
     public ResponseEntity<Resource> searchImage(
             @RequestParam String filename,
-            @RequestHeader("Authorization") String bearerToken
-    ) {
-        var image = service.getImage(filename, bearerToken);
-        var body = new ByteArrayResource(image.getData());
+            @RequestParam(required = false) String variant,
+            @RequestParam(required = false) Integer w,
+            @RequestParam(required = false) Integer h,
+            @RequestParam(required = false) Integer q,
+            @AuthenticationPrincipal AuthenticatedUser user,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        var imageVariant = ImageVariant.fromName(variant);
+        var rendition = rendition(w, h, q, request);
+        return imageContent(service.getImage(filename, user), imageVariant, rendition, request, response);
+    }
+
+    //content behind a versioned link never changes, so it may be cached by browsers and proxies for good
+    @GetMapping("/v/{contentHash}/{filename}")
+    public ResponseEntity<Resource> getImageVersion(
+            @PathVariable String contentHash,
+            @PathVariable String filename,
+            @AuthenticationPrincipal AuthenticatedUser user,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        var image = service.getImageVersion(contentHash, filename, user);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        return imageContent(image, null, null, request, response);
+    }
+
+    //w, h and q ask for an on demand resized image, Save-Data and Accept pick its encoding
+    private static ImageRendition rendition(Integer w, Integer h, Integer q, HttpServletRequest request) {
+        if (w == null && h == null && q == null) {
+            return null;
+        }
+        boolean saveData = "on".equalsIgnoreCase(request.getHeader(SAVE_DATA));
+        return ImageRendition.of(w, h, q, saveData, request.getHeader(HttpHeaders.ACCEPT));
+    }
+
+    private ResponseEntity<Resource> imageContent(
+            CachedImage image,
+            ImageVariant variant,
+            ImageRendition rendition,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (variant != null && rendition != null) {
+            throw new InvalidRenditionException("Use either variant or w, h and q");
+        }
+        var metadata = image.image();
+        if (!response.containsHeader(HttpHeaders.CACHE_CONTROL)) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE_CACHE_CONTROL);
+        }
+
+        //until a variant is generated the original is sent instead
+        Resource variantContent = variant == null
+                ? null
+                : service.getImageVariant(image, variant).orElse(null);
+        String eTag = eTag(metadata);
+        if (rendition != null) {
+            //same url can get a different encoding depending on these headers
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + SAVE_DATA);
+            eTag = eTag(metadata, rendition.tag());
+        } else if (variantContent != null) {
+            eTag = eTag(metadata, variant.key());
+        }
+
+        //If-None-Match / If-Modified-Since are checked against metadata only, content is not read for a 304.
+        //ETag and Last-Modified are also added to the 200 response
+        if (new ServletWebRequest(request, response).checkNotModified(eTag, lastModified(metadata))) {
+            return null;
+        }
+
+        //renditions of content ImageIO can't read fall back to the original as well
+        byte[] rendered = rendition == null ? null : service.getImageRendition(image, rendition);
+        Resource content;
+        String mimeType;
+        if (rendered != null) {
+            content = new ByteArrayResource(rendered);
+            mimeType = rendition.mimeType();
+        } else if (variantContent != null) {
+            content = variantContent;
+            mimeType = ImageVariant.MIME_TYPE;
+        } else {
+            content = service.getImageContent(image);
+            mimeType = metadata.getMimeType();
+        }
+
+        //whole file on local disk, let tomcat hand it to the kernel (sendfile) after the response headers,
+        //image bytes are never copied into the jvm. Not for HEAD (which @GetMapping answers as well),
+        //tomcat would still send the file after the headers
+        if (request.getHeader(HttpHeaders.RANGE) == null
+                && !HttpMethod.HEAD.matches(request.getMethod())
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+                && content.isFile()
+                && content.contentLength() >= SENDFILE_MIN_SIZE) {
+            long length = content.contentLength();
+            request.setAttribute(SENDFILE_FILENAME, content.getFile().getAbsolutePath());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, length);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentLength(length)
+                    .build();
+        }
+
+        //Resource bodies are streamed by spring, which also answers Range requests
+        //(206 Partial Content, multipart/byteranges for multiple ranges) and sets Accept-Ranges
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, image.getMimeType())
-                .body(body);
+                .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                .body(content);
+    }
+
+    //content hash identifies the bytes exactly, so the etag is a strong one
+    private static String eTag(Image image) {
+        return "\"" + image.getContentHash() + "\"";
+    }
+
+    //variants and renditions are other representations of the same content
+    private static String eTag(Image image, String representation) {
+        return "\"" + image.getContentHash() + "-" + representation + "\"";
+    }
+
+    private static long lastModified(Image image) {
+        return image.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
     @PostMapping("/upload")
     public ResponseEntity<ImageResponse> uploadImage(
             @RequestPart MultipartFile file,
-            @RequestHeader("Authorization") String bearerToken
+            @AuthenticationPrincipal AuthenticatedUser user
             ) throws IOException {
-        return new ResponseEntity<>(service.uploadImage(file, bearerToken), HttpStatus.CREATED);
+        return new ResponseEntity<>(service.uploadImage(file, user), HttpStatus.CREATED);
+    }
+
+    //201 with the created image if the server already has the content, otherwise 200 and the file has to be uploaded
+    @PostMapping("/preflight")
+    public ResponseEntity<ImagePreflightResponse> preflightImage(
+            @RequestBody @Valid ImagePreflightRequest request,
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) {
+        var preflight = service.preflightImage(request, user);
+        return new ResponseEntity<>(preflight, preflight.isUploadRequired() ? HttpStatus.OK : HttpStatus.CREATED);
+    }
+
+    //Resumable upload, for files too big for /upload or unreliable connections:
+    //create the upload, PUT the chunks (any order, in parallel), GET to see what arrived, then complete it
+    @PostMapping("/uploads")
+    public ResponseEntity<ImageUploadStatus> createUpload(
+            @RequestBody @Valid ImageUploadRequest request,
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) {
+        return new ResponseEntity<>(uploadService.createUpload(request, user), HttpStatus.CREATED);
+    }
+
+    //body is the raw chunk, it is streamed into the upload and never read into memory as a whole
+    @PutMapping(path = "/uploads/{id}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<ImageUploadStatus> uploadChunk(
+            @PathVariable String id,
+            @RequestParam long offset,
+            @AuthenticationPrincipal AuthenticatedUser user,
+            HttpServletRequest request
+    ) throws IOException {
+        return ResponseEntity.ok(uploadService.writeChunk(id, offset, request.getInputStream(), user));
     }
 
+    @GetMapping("/uploads/{id}")
+    public ResponseEntity<ImageUploadStatus> getUpload(
+            @PathVariable String id,
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) {
+        return ResponseEntity.ok(uploadService.getUpload(id, user));
+    }
+
+    @PostMapping("/uploads/{id}/complete")
+    public ResponseEntity<ImageResponse> completeUpload(
+            @PathVariable String id,
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) throws IOException {
+        return new ResponseEntity<>(uploadService.completeUpload(id, user), HttpStatus.CREATED);
+    }
+
+    @DeleteMapping("/uploads/{id}")
+    public ResponseEntity<Void> cancelUpload(
+            @PathVariable String id,
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) {
+        uploadService.cancelUpload(id, user);
+        return ResponseEntity.noContent().build();
+    }
+
+    //201 if every file was uploaded, 207 (Multi-Status) if some of them failed, each file has its own result
     @PostMapping("/upload_multi")
-    public ResponseEntity<List<ImageResponse>> uploadMulti(
+    public ResponseEntity<List<ImageUploadResult>> uploadMulti(
             @RequestPart List<MultipartFile> files,
-            @RequestHeader("Authorization") String bearerToken
+            @AuthenticationPrincipal AuthenticatedUser user
     ) {
-        List<ImageResponse> imageResponseList = files.stream()
-                .map(file -> {
-                    try {
-                        return service.uploadImage(file, bearerToken);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }).toList();
-        return new ResponseEntity<>(imageResponseList, HttpStatus.CREATED);
+        var results = batchUploadService.uploadImages(files, user);
+        boolean allUploaded = results.stream().allMatch(ImageUploadResult::isSuccess);
+        return new ResponseEntity<>(results, allUploaded ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
     }
 
     @PutMapping("/{filename}")
     public ResponseEntity<ImageResponse> changeImage(
             @PathVariable String filename,
             @RequestPart MultipartFile file,
-            @RequestHeader("Authorization") String bearerToken
+            @AuthenticationPrincipal AuthenticatedUser user
     ) throws IOException {
-        return ResponseEntity.ok(service.changeImage(filename, file, bearerToken));
+        return ResponseEntity.ok(service.changeImage(filename, file, user));
     }
 
     @DeleteMapping("/{filename}")
     public ResponseEntity<String> deleteImage(
             @PathVariable String filename,
-            @RequestHeader("Authorization") String bearerToken
+            @AuthenticationPrincipal AuthenticatedUser user
     ) {
-        return ResponseEntity.ok(service.deleteImage(filename, bearerToken));
+        return ResponseEntity.ok(service.deleteImage(filename, user));
     }
 
-    //todo add search, so user can search for one photo by its name
     @GetMapping("/")
-    public ResponseEntity<List<ImageResponse>> getImagesByDateTimeAndPage(
-            @RequestParam LocalDateTime date,
-            @RequestParam Integer page,
+    public ResponseEntity<ImagePage> getImages(
+            @RequestParam(required = false) LocalDateTime date,
             @RequestParam(required = false) String order,
-            @RequestHeader("Authorization") String bearerToken
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @AuthenticationPrincipal AuthenticatedUser user
             ) {
-        if (order == null) {
-            return ResponseEntity.ok(service.getImagesByDateTimeAndPage(date, page, bearerToken));
-        }
-        return ResponseEntity.ok(service.getImagesByDateTimeAndPageAndSort(date, page, bearerToken, order));
+        return ResponseEntity.ok(service.getImages(date, order, limit, cursor, user));
     }
 
     @GetMapping("/sort/{order}")
-    public ResponseEntity<List<ImageResponse>> sortAllImages(
+    public ResponseEntity<ImagePage> sortAllImages(
             @PathVariable String order,
-            @RequestHeader("Authorization") String bearerToken
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @AuthenticationPrincipal AuthenticatedUser user
     ) {
-        return ResponseEntity.ok(service.sortAllImages(order, bearerToken));
+        return ResponseEntity.ok(service.sortAllImages(order, limit, cursor, user));
+    }
+
+    //full export of the sorted list, json is written to the response while rows are read
+    @GetMapping("/sort/{order}/export")
+    public void exportImages(
+            @PathVariable String order,
+            @AuthenticationPrincipal AuthenticatedUser user,
+            HttpServletResponse response
+    ) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        service.exportImages(order, user, response.getOutputStream());
     }
 
 }
@@ -0,0 +1,55 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+//Position of the last image of a page: sort key (created_at or size) and id of that image.
+//The next page starts right after it, so no rows are skipped with OFFSET.
+//Clients get it as an opaque base64 string and should not rely on its content
+public record ImageCursor(ImageSort sort, String key, long id) {
+
+    public static ImageCursor after(ImageSummary image, ImageSort sort) {
+        String key = sort == ImageSort.CREATED_AT
+                ? image.getCreatedAt().toString()
+                : image.getSize().toString();
+        return new ImageCursor(sort, key, image.getId());
+    }
+
+    public static ImageCursor decode(String cursor, ImageSort sort) {
+        ImageCursor decoded;
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length != 3) {
+                throw new InvalidCursorException("Invalid cursor");
+            }
+            decoded = new ImageCursor(ImageSort.valueOf(parts[0]), parts[1], Long.parseLong(parts[2]));
+            //parse the key once here, so a broken cursor fails with 400 and not in the query
+            decoded.createdAt();
+            decoded.size();
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new InvalidCursorException("Invalid cursor");
+        }
+
+        if (decoded.sort() != sort) {
+            throw new InvalidCursorException("Cursor does not belong to this sort order");
+        }
+        return decoded;
+    }
+
+    public String encode() {
+        String value = sort.name() + "|" + key + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public LocalDateTime createdAt() {
+        return sort == ImageSort.CREATED_AT ? LocalDateTime.parse(key) : null;
+    }
+
+    public Long size() {
+        return sort == ImageSort.CREATED_AT ? null : Long.valueOf(key);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.spark_project.image;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+//Second mapping of the image table that only contains the legacy data column.
+//Images uploaded before ImageStore still have their bytes there, keeping the column out of Image
+//means metadata queries (lists, sorting, exists checks) never read it.
+//Rows are only created through Image, this entity is only used to read and clear the old bytes
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "image"
+)
+public class ImageData {
+
+    @Id
+    @Column(
+            name = "id",
+            updatable = false
+    )
+    private Long id;
+
+    @ToString.Exclude
+    @Column(
+            name = "data"
+    )
+    private byte[] data;
+}
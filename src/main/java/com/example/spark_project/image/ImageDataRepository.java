@@ -0,0 +1,17 @@
+package com.example.spark_project.image;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface ImageDataRepository extends JpaRepository<ImageData, Long> {
+
+    @Transactional
+    @Modifying
+    @Query("update ImageData d set d.data = null where d.id = :id")
+    void clearData(@Param("id") Long id);
+}
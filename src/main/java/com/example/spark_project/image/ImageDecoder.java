@@ -0,0 +1,55 @@
+package com.example.spark_project.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+//Decodes uploaded images for resizing without trusting their size.
+//ImageIO.read allocates a raster for the dimensions in the header, a small png claiming 20000x20000
+//would take gigabytes of heap. The dimensions are read first, images over the pixel budget are not
+//decoded at all, and big ones are subsampled while decoding to about 2x the size they are resized to
+final class ImageDecoder {
+
+    private ImageDecoder() {
+    }
+
+    //Null if ImageIO can't read the content or it has more than maxPixels pixels.
+    //Readers fail on malformed files with runtime exceptions as well (e.g. NegativeArraySizeException
+    //for a bmp with a broken pixel data offset), such content is just as unreadable
+    static BufferedImage decode(InputStream content, int maxWidth, int maxHeight, long maxPixels) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(content)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+                    return null;
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.min(width / (2 * maxWidth), height / (2 * maxHeight));
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            } catch (RuntimeException e) {
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
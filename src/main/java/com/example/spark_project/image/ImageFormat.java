@@ -0,0 +1,70 @@
+package com.example.spark_project.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+//Image formats accepted for upload, detected from the first bytes of the content (magic numbers)
+//instead of trusting the content type sent by the client
+public enum ImageFormat {
+
+    JPEG("image/jpeg"),
+    PNG("image/png"),
+    GIF("image/gif"),
+    WEBP("image/webp"),
+    BMP("image/bmp");
+
+    //enough bytes to tell every format apart (webp needs 12)
+    public static final int HEADER_SIZE = 12;
+
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF87_MAGIC = "GIF87a".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GIF89_MAGIC = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RIFF_MAGIC = "RIFF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WEBP_MAGIC = "WEBP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BMP_MAGIC = "BM".getBytes(StandardCharsets.US_ASCII);
+
+    private final String mimeType;
+
+    ImageFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String mimeType() {
+        return mimeType;
+    }
+
+    //header is the start of the content, it may be shorter than HEADER_SIZE for tiny files
+    public static Optional<ImageFormat> detect(byte[] header) {
+        if (startsWith(header, 0, JPEG_MAGIC)) {
+            return Optional.of(JPEG);
+        }
+        if (startsWith(header, 0, PNG_MAGIC)) {
+            return Optional.of(PNG);
+        }
+        if (startsWith(header, 0, GIF87_MAGIC) || startsWith(header, 0, GIF89_MAGIC)) {
+            return Optional.of(GIF);
+        }
+        //RIFF <4 bytes of length> WEBP
+        if (startsWith(header, 0, RIFF_MAGIC) && startsWith(header, 8, WEBP_MAGIC)) {
+            return Optional.of(WEBP);
+        }
+        if (startsWith(header, 0, BMP_MAGIC)) {
+            return Optional.of(BMP);
+        }
+        return Optional.empty();
+    }
+
+    //reads at most HEADER_SIZE bytes, the caller decides what happens to the rest of the stream
+    public static Optional<ImageFormat> detect(InputStream content) throws IOException {
+        return detect(content.readNBytes(HEADER_SIZE));
+    }
+
+    private static boolean startsWith(byte[] header, int offset, byte[] magic) {
+        return header.length >= offset + magic.length
+                && Arrays.equals(header, offset, offset + magic.length, magic, 0, magic.length);
+    }
+}
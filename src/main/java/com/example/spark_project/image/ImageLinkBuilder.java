@@ -0,0 +1,68 @@
+package com.example.spark_project.image;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+
+//Builds links to images as <base>/api/v1/image/<filename>.
+//The base is either configured (image.link.base-url, e.g. the public url behind a proxy)
+//or resolved from the current request once and kept as a request attribute,
+//so lists only pay for a string concatenation per image
+@Component
+public class ImageLinkBuilder {
+
+    static final String IMAGE_PATH = "/api/v1/image/";
+    static final String VERSIONED_PATH = "v/";
+    private static final String BASE_ATTRIBUTE = ImageLinkBuilder.class.getName() + ".BASE";
+
+    private final String configuredBase;
+
+    public ImageLinkBuilder(@Value("${image.link.base-url:}") String baseUrl) {
+        this.configuredBase = baseUrl.isBlank()
+                ? null
+                : baseUrl.replaceAll("/+$", "") + IMAGE_PATH;
+    }
+
+    public String base() {
+        if (configuredBase != null) {
+            return configuredBase;
+        }
+
+        RequestAttributes attributes = RequestContextHolder.currentRequestAttributes();
+        String base = (String) attributes.getAttribute(BASE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (base == null) {
+            base = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replacePath(IMAGE_PATH)
+                    .replaceQuery(null)
+                    .toUriString();
+            attributes.setAttribute(BASE_ATTRIBUTE, base, RequestAttributes.SCOPE_REQUEST);
+        }
+        return base;
+    }
+
+    public String link(String filename) {
+        return link(base(), filename);
+    }
+
+    //<base>v/<content hash>/<filename>, null for legacy images that were not moved to the store yet
+    public String versionedLink(String base, String contentHash, String filename) {
+        if (contentHash == null) {
+            return null;
+        }
+        return base + VERSIONED_PATH + contentHash + "/" + UriUtils.encodePath(filename, StandardCharsets.UTF_8);
+    }
+
+    public String versionedLink(String contentHash, String filename) {
+        return versionedLink(base(), contentHash, filename);
+    }
+
+    //filename is encoded the same way UriComponentsBuilder encoded the whole path before
+    public String link(String base, String filename) {
+        return base + UriUtils.encodePath(filename, StandardCharsets.UTF_8);
+    }
+}
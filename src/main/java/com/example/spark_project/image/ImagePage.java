@@ -0,0 +1,19 @@
+package com.example.spark_project.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImagePage {
+
+    private List<ImageResponse> images;
+    //cursor for the next page, null on the last page
+    private String next;
+}
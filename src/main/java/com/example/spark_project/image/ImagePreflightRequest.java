@@ -0,0 +1,30 @@
+package com.example.spark_project.image;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImagePreflightRequest {
+
+    @NotBlank(message = "Filename is required")
+    private String filename;
+
+    //in bytes
+    @NotNull(message = "Size is required")
+    @PositiveOrZero(message = "Size can't be negative")
+    private Long size;
+
+    //hex encoded sha-256 of the file content
+    @NotNull(message = "Sha256 is required")
+    @Pattern(regexp = "^[0-9a-fA-F]{64}$", message = "Sha256 should be 64 hex characters")
+    private String sha256;
+}
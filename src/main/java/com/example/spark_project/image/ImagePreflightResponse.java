@@ -0,0 +1,19 @@
+package com.example.spark_project.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImagePreflightResponse {
+
+    private String filename;
+    //true if the server doesn't have the content, the file has to be sent to /upload then
+    private boolean uploadRequired;
+    //created image, null if the upload is required
+    private ImageResponse image;
+}
@@ -0,0 +1,67 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.InvalidRenditionException;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+//Size, quality and format of an on demand resized image (w, h and q parameters of the api).
+//The image is fitted into width x height and never enlarged
+public record ImageRendition(int width, int height, int quality, String format) {
+
+    static final int MAX_DIMENSION = 4096;
+    static final int DEFAULT_QUALITY = 80;
+    //quality used for clients that send Save-Data: on
+    static final int SAVE_DATA_QUALITY = 50;
+
+    //Missing width/height mean no limit in that direction, missing quality means the default one.
+    //The jdk can only encode jpeg, png, gif and bmp (no webp/avif), so Accept only decides between
+    //jpeg and png (png for the rare client that does not take jpeg), Save-Data lowers the jpeg quality
+    public static ImageRendition of(Integer width, Integer height, Integer quality, boolean saveData, String accept) {
+        int w = dimension(width, "w");
+        int h = dimension(height, "h");
+        if (quality != null && (quality < 1 || quality > 100)) {
+            throw new InvalidRenditionException("Invalid quality. q must be between 1 and 100");
+        }
+
+        if (!acceptsJpeg(accept)) {
+            //png is lossless, quality does not apply
+            return new ImageRendition(w, h, 100, "png");
+        }
+        int q = quality == null ? DEFAULT_QUALITY : quality;
+        return new ImageRendition(w, h, saveData ? Math.min(q, SAVE_DATA_QUALITY) : q, "jpeg");
+    }
+
+    public String mimeType() {
+        return "png".equals(format) ? MediaType.IMAGE_PNG_VALUE : MediaType.IMAGE_JPEG_VALUE;
+    }
+
+    //part of the etag, every rendition of the same content is a different representation
+    public String tag() {
+        return width + "x" + height + "q" + quality + "." + format;
+    }
+
+    private static int dimension(Integer value, String name) {
+        if (value == null) {
+            return MAX_DIMENSION;
+        }
+        if (value < 1 || value > MAX_DIMENSION) {
+            throw new InvalidRenditionException("Invalid size. " + name + " must be between 1 and " + MAX_DIMENSION);
+        }
+        return value;
+    }
+
+    private static boolean acceptsJpeg(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return true;
+        }
+        try {
+            List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            return mediaTypes.stream().anyMatch(MediaType.IMAGE_JPEG::isCompatibleWith)
+                    || mediaTypes.stream().noneMatch(MediaType.IMAGE_PNG::isCompatibleWith);
+        } catch (InvalidMediaTypeException e) {
+            return true;
+        }
+    }
+}
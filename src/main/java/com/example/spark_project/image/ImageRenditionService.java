@@ -0,0 +1,133 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageRenditionBusyException;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.*;
+
+//Resizes and re-encodes images on request (see ImageRendition).
+//Results are kept in a cache bounded by bytes and keyed by (content hash, rendition),
+//concurrent requests for the same rendition wait for the future of a single resize instead of doing their own,
+//the cache itself is not locked while it runs.
+//Every other w/h/q is a new decode, so resizing runs on a small, bounded pool of worker threads
+//and requests get a 503 when it is full instead of piling decodes onto the request threads
+@Component
+public class ImageRenditionService {
+
+    private final ImageStore imageStore;
+    private final long maxPixels;
+    private final AsyncCache<Key, byte[]> cache;
+    private final ThreadPoolExecutor executor;
+    //content ImageIO can't read (e.g. webp) or that is too big to decode, it is not read again
+    private final Cache<String, Boolean> unsupported = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    public ImageRenditionService(
+            ImageStore imageStore,
+            @Value("${image.renditions.cache-size:32MB}") DataSize cacheSize,
+            @Value("${image.renditions.threads:2}") int threads,
+            @Value("${image.renditions.queue-size:20}") int queueSize,
+            @Value("${image.decode.max-pixels:40000000}") long maxPixels
+    ) {
+        this.imageStore = imageStore;
+        this.maxPixels = maxPixels;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(cacheSize.toBytes())
+                .weigher((Key key, byte[] data) -> data.length)
+                .buildAsync();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("image-rendition-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                threadFactory
+        );
+    }
+
+    //null if the content can't be read by ImageIO (e.g. webp) or is too big, the original should be sent then
+    public byte[] render(String contentHash, ImageRendition rendition) {
+        if (unsupported.getIfPresent(contentHash) != null) {
+            return null;
+        }
+        CompletableFuture<byte[]> result;
+        try {
+            result = cache.get(new Key(contentHash, rendition), (key, cacheExecutor) ->
+                    CompletableFuture.supplyAsync(() -> create(key), executor));
+        } catch (RejectedExecutionException e) {
+            throw new ImageRenditionBusyException("Too many resize requests, try again later");
+        }
+
+        //the future is shared with other requests for the same rendition, so it is never cancelled here
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImageRenditionBusyException("Resize was interrupted");
+        }
+    }
+
+    private byte[] create(Key key) {
+        ImageRendition rendition = key.rendition();
+        BufferedImage original;
+        try (InputStream content = imageStore.get(key.contentHash()).getInputStream()) {
+            original = ImageDecoder.decode(content, rendition.width(), rendition.height(), maxPixels);
+        } catch (IOException e) {
+            original = null;
+        }
+        if (original == null) {
+            unsupported.put(key.contentHash(), Boolean.TRUE);
+            return null;
+        }
+
+        BufferedImage scaled = ImageVariantService.scale(original, rendition.width(), rendition.height());
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(rendition.format()).next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed() && "jpeg".equals(rendition.format())) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(rendition.quality() / 100f);
+            }
+            writer.write(null, new IIOImage(scaled, null, null), param);
+        } catch (IOException e) {
+            //only writes to memory
+            throw new IllegalStateException(e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Key(String contentHash, ImageRendition rendition) {
+    }
+}
@@ -1,34 +1,23 @@
 package com.example.spark_project.image;
 
-import com.example.spark_project.user.User;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ImageRepository extends JpaRepository<Image, Long> {
+public interface ImageRepository extends JpaRepository<Image, Long>, ImageRepositoryCustom {
 
-    boolean existsByFilenameAndUser(String filename, User user);
+    //by email of the owner, which is also the join column, so no user has to be loaded first
+    boolean existsByFilenameAndUserEmail(String filename, String email);
 
-    Optional<Image> findByFilenameAndUser(String filename, User user);
+    Optional<Image> findByFilenameAndUserEmail(String filename, String email);
 
-    void deleteByFilenameAndUser(String filename, User user);
-
-    List<Image> findByCreatedAtAndUser(LocalDateTime createdAt, User user, Pageable pageable);
-
-    boolean existsByCreatedAtAndUser(LocalDateTime createdAt, User user);
-
-    List<Image> findByUserOrderBySizeAsc(User user);
-
-    List<Image> findByUserOrderBySizeDesc(User user);
-
-    boolean existsByUser(User user);
-
-    List<Image> findByCreatedAtAndUserOrderBySizeAsc(LocalDateTime createdAt, User user, Pageable pageable);
-
-    List<Image> findByCreatedAtAndUserOrderBySizeDesc(LocalDateTime createdAt, User user, Pageable pageable);
+    //which of the filenames the user already has, one query for a whole batch of uploads
+    @Query("select i.filename from Image i where i.user.email = :email and i.filename in :filenames")
+    List<String> findExistingFilenames(@Param("email") String email, @Param("filenames") Collection<String> filenames);
 }
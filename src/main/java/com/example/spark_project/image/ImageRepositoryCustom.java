@@ -0,0 +1,16 @@
+package com.example.spark_project.image;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface ImageRepositoryCustom {
+
+    //keyset pagination, returns up to limit images of the user (by email) that come after the cursor
+    //in the given order (first page if cursor is null), optionally only the ones created at createdAt
+    List<ImageSummary> findPage(String email, LocalDateTime createdAt, ImageSort sort, ImageCursor after, int limit);
+
+    //every image of the user in the given order, read from the db in chunks while the stream is consumed,
+    //has to be used in a transaction and closed
+    Stream<ImageSummary> streamAll(String email, ImageSort sort);
+}
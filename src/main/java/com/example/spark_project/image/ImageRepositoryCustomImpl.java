@@ -0,0 +1,99 @@
+package com.example.spark_project.image;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.*;
+import org.hibernate.jpa.HibernateHints;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class ImageRepositoryCustomImpl implements ImageRepositoryCustom {
+
+    //rows fetched per round trip when streaming
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<ImageSummary> findPage(String email, LocalDateTime createdAt, ImageSort sort, ImageCursor after, int limit) {
+        return entityManager.createQuery(query(email, createdAt, sort, after))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<ImageSummary> streamAll(String email, ImageSort sort) {
+        return entityManager.createQuery(query(email, null, sort, null))
+                .setHint(HibernateHints.HINT_FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    private CriteriaQuery<ImageSummary> query(String email, LocalDateTime createdAt, ImageSort sort, ImageCursor after) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<ImageSummary> query = cb.createQuery(ImageSummary.class);
+        Root<Image> image = query.from(Image.class);
+        Path<Long> id = image.get("id");
+
+        query.select(cb.construct(
+                ImageSummary.class,
+                id,
+                image.get("filename"),
+                image.get("size"),
+                image.get("createdAt"),
+                image.get("contentHash")
+        ));
+
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(image.get("user").get("email"), email));
+        if (createdAt != null) {
+            where.add(cb.equal(image.get("createdAt"), createdAt));
+        }
+
+        boolean descending = sort == ImageSort.SIZE_DESC;
+        if (sort == ImageSort.CREATED_AT) {
+            Path<LocalDateTime> key = image.get("createdAt");
+            if (after != null) {
+                where.add(after(cb, key, after.createdAt(), id, after.id(), descending));
+            }
+            query.orderBy(cb.asc(key), cb.asc(id));
+        } else {
+            Path<Long> key = image.get("size");
+            if (after != null) {
+                where.add(after(cb, key, after.size(), id, after.id(), descending));
+            }
+            query.orderBy(
+                    descending ? cb.desc(key) : cb.asc(key),
+                    descending ? cb.desc(id) : cb.asc(id)
+            );
+        }
+        query.where(where.toArray(Predicate[]::new));
+
+        return query;
+    }
+
+    //(key, id) > (lastKey, lastId) for ascending order, < for descending
+    private <T extends Comparable<? super T>> Predicate after(
+            CriteriaBuilder cb,
+            Path<T> key,
+            T lastKey,
+            Path<Long> id,
+            long lastId,
+            boolean descending
+    ) {
+        if (descending) {
+            return cb.or(
+                    cb.lessThan(key, lastKey),
+                    cb.and(cb.equal(key, lastKey), cb.lessThan(id, lastId))
+            );
+        }
+        return cb.or(
+                cb.greaterThan(key, lastKey),
+                cb.and(cb.equal(key, lastKey), cb.greaterThan(id, lastId))
+        );
+    }
+}
@@ -17,4 +17,6 @@ public class ImageResponse {
     private Long size;
     private LocalDateTime createdAt;
     private String imageLink;
+    //link that embeds the content hash, it never changes what it points to and can be cached forever
+    private String versionedLink;
 }
@@ -0,0 +1,240 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageStorageException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+//Second cache tier for image bytes, kept in a memory mapped segment file outside the java heap.
+//The file is a ring buffer of records keyed by content hash, the oldest record is overwritten first (FIFO).
+//
+//Layout: header (magic, version, capacity, head, tail, wrap, count) followed by records
+//(marker, sha-256, length, crc32c, bytes). head is the oldest record, tail is where the next one goes,
+//wrap is where the records before the end of the file stop while the ring is wrapped (0 otherwise).
+//The header is written after every change, so the index can be rebuilt from the file after a restart.
+@Component
+public class ImageSegmentCache {
+
+    private static final int MAGIC = 0x494d4753;
+    private static final int VERSION = 1;
+    private static final int RECORD_MARKER = 0x52454331;
+    private static final int HEADER_SIZE = 64;
+    private static final int HASH_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 4 + HASH_SIZE + 4 + 4;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int HEAD_OFFSET = 12;
+    private static final int TAIL_OFFSET = 16;
+    private static final int WRAP_OFFSET = 20;
+    private static final int COUNT_OFFSET = 24;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int tail = HEADER_SIZE;
+    private int wrap;
+
+    public ImageSegmentCache(
+            @Value("${image.cache.segment.location:image-cache}") String location,
+            @Value("${image.cache.segment.size:256MB}") DataSize size
+    ) {
+        //a single mapping is limited to 2GB
+        this.capacity = (int) Math.min(size.toBytes(), Integer.MAX_VALUE);
+        if (capacity <= HEADER_SIZE) {
+            this.buffer = null;
+            return;
+        }
+
+        Path file = Paths.get(location).toAbsolutePath().normalize().resolve("segment.dat");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                //mapping stays valid after the channel is closed
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not open image cache segment " + file, e);
+        }
+
+        if (!reopen()) {
+            reset();
+        }
+    }
+
+    //copy of the cached bytes, null when the hash is not cached or the record is damaged
+    public byte[] get(String contentHash) {
+        if (buffer == null) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            Entry entry = index.get(contentHash);
+            if (entry == null) {
+                return null;
+            }
+
+            byte[] data = new byte[entry.length()];
+            buffer.get(entry.offset() + RECORD_HEADER_SIZE, data);
+            int crc = buffer.getInt(entry.offset() + RECORD_HEADER_SIZE - 4);
+            return crc == crc32c(data) ? data : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(String contentHash, byte[] data) {
+        int recordSize = RECORD_HEADER_SIZE + data.length;
+        if (buffer == null || recordSize > capacity - HEADER_SIZE) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (index.containsKey(contentHash)) {
+                return;
+            }
+
+            int position = tail;
+            boolean wrapping = position + recordSize > capacity;
+            if (wrapping) {
+                //everything between the tail and the end of the file is older than what is at the start
+                while (!entries.isEmpty() && entries.peekFirst().offset() >= tail) {
+                    evictOldest();
+                }
+                position = HEADER_SIZE;
+            }
+            while (!entries.isEmpty()
+                    && entries.peekFirst().offset() >= position
+                    && entries.peekFirst().offset() < position + recordSize) {
+                evictOldest();
+            }
+            //evicted records are dropped from the header before their space is overwritten
+            writeHeader();
+
+            buffer.putInt(position, RECORD_MARKER);
+            buffer.put(position + 4, HexFormat.of().parseHex(contentHash));
+            buffer.putInt(position + 4 + HASH_SIZE, data.length);
+            buffer.putInt(position + 4 + HASH_SIZE + 4, crc32c(data));
+            buffer.put(position + RECORD_HEADER_SIZE, data);
+
+            if (wrapping) {
+                wrap = tail;
+            }
+            tail = position + recordSize;
+            Entry entry = new Entry(contentHash, position, data.length);
+            entries.addLast(entry);
+            index.put(contentHash, entry);
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (buffer != null) {
+            lock.writeLock().lock();
+            try {
+                buffer.force();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void evictOldest() {
+        index.remove(entries.removeFirst().contentHash());
+    }
+
+    private void writeHeader() {
+        //the ring is wrapped while the oldest record sits after the tail
+        if (entries.isEmpty() || entries.peekFirst().offset() < tail) {
+            wrap = 0;
+        }
+        int head = entries.isEmpty() ? tail : entries.peekFirst().offset();
+        buffer.putInt(HEAD_OFFSET, head);
+        buffer.putInt(TAIL_OFFSET, tail);
+        buffer.putInt(WRAP_OFFSET, wrap);
+        buffer.putInt(COUNT_OFFSET, entries.size());
+    }
+
+    //rebuilds the index from an existing segment file, false if the file is new or not readable
+    private boolean reopen() {
+        if (buffer.getInt(MAGIC_OFFSET) != MAGIC
+                || buffer.getInt(VERSION_OFFSET) != VERSION
+                || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+            return false;
+        }
+
+        int position = buffer.getInt(HEAD_OFFSET);
+        int count = buffer.getInt(COUNT_OFFSET);
+        tail = buffer.getInt(TAIL_OFFSET);
+        wrap = buffer.getInt(WRAP_OFFSET);
+        for (int i = 0; i < count; i++) {
+            if (wrap != 0 && position == wrap) {
+                position = HEADER_SIZE;
+            }
+            if (position < HEADER_SIZE
+                    || position > capacity - RECORD_HEADER_SIZE
+                    || buffer.getInt(position) != RECORD_MARKER) {
+                return false;
+            }
+
+            byte[] hash = new byte[HASH_SIZE];
+            buffer.get(position + 4, hash);
+            int length = buffer.getInt(position + 4 + HASH_SIZE);
+            if (length < 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+                return false;
+            }
+
+            Entry entry = new Entry(HexFormat.of().formatHex(hash), position, length);
+            entries.addLast(entry);
+            index.put(entry.contentHash(), entry);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position == tail || count == 0;
+    }
+
+    private void reset() {
+        index.clear();
+        entries.clear();
+        tail = HEADER_SIZE;
+        wrap = 0;
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        writeHeader();
+    }
+
+    private static int crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private record Entry(String contentHash, int offset, int length) {
+    }
+}
@@ -3,209 +3,454 @@ package com.example.spark_project.image;
 import com.example.spark_project.exception.FileNotAnImageException;
 import com.example.spark_project.exception.ImageAlreadyExistsException;
 import com.example.spark_project.exception.ImageNotFoundException;
-import com.example.spark_project.exception.InvalidSortOrderException;
-import com.example.spark_project.security.JwtService;
-import com.example.spark_project.user.UserRepository;
-import jakarta.transaction.Transactional;
+import com.example.spark_project.exception.ImageStorageException;
+import com.example.spark_project.security.AuthenticatedUser;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ImageService {
 
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = 100;
+
     private final ImageRepository imageRepository;
-    private final UserRepository userRepository;
-    private final JwtService jwtService;
+    private final ImageDataRepository imageDataRepository;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageStore imageStore;
+    private final ObjectMapper objectMapper;
+    private final ImageLinkBuilder imageLinkBuilder;
+    private final ImageCache imageCache;
+    private final ImageSegmentCache imageSegmentCache;
+    private final ImageVariantService imageVariantService;
+    private final ImageRenditionService imageRenditionService;
+
+    public CachedImage getImage(String filename, AuthenticatedUser user) {
+        return imageCache.get(user.email(), filename, () -> loadImage(filename, user.email()));
+    }
 
-    public Image getImage(String filename, String bearerToken) {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    //same image, but only if its content still has the given hash,
+    //a versioned link must never return different bytes than the ones it was created for
+    public CachedImage getImageVersion(String contentHash, String filename, AuthenticatedUser user) {
+        var image = getImage(filename, user);
+        if (!contentHash.equals(image.image().getContentHash())) {
+            throw new ImageNotFoundException("Image " + filename + " does not exist in this version");
+        }
+        return image;
+    }
 
-        return imageRepository.findByFilenameAndUser(filename, user)
+    //only metadata is loaded here, content is read once it is actually sent (see getImageContent),
+    //so conditional requests answered with 304 never touch the blob
+    private CachedImage loadImage(String filename, String email) {
+        var image = imageRepository.findByFilenameAndUserEmail(filename, email)
                 .orElseThrow(() -> new ImageNotFoundException(
                         "Image " + filename + " does not exist"
                 ));
+
+        if (image.getContentHash() == null) {
+            migrateLegacyData(image);
+        }
+
+        return new CachedImage(email, image, null);
+    }
+
+    //bytes evicted from the heap cache are usually still in the off-heap segment
+    private byte[] readContent(Image image) {
+        byte[] data = imageSegmentCache.get(image.getContentHash());
+        if (data != null) {
+            return data;
+        }
+
+        try (InputStream content = imageStore.get(image.getContentHash()).getInputStream()) {
+            data = content.readAllBytes();
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not read image " + image.getFilename(), e);
+        }
+        imageSegmentCache.put(image.getContentHash(), data);
+        return data;
+    }
+
+    //images uploaded before ImageStore still have their bytes in the db,
+    //they are moved to the store on first read
+    private void migrateLegacyData(Image image) {
+        var imageData = imageDataRepository.findById(image.getId())
+                .filter(legacy -> legacy.getData() != null)
+                .orElseThrow(() -> new ImageNotFoundException(
+                        "Image " + image.getFilename() + " has no content"
+                ));
+
+        var content = imageStore.put(new ByteArrayInputStream(imageData.getData()));
+        acquireContent(content.key(), content.size(), image.getMimeType());
+        image.setContentHash(content.key());
+        imageRepository.save(image);
+        imageDataRepository.clearData(image.getId());
     }
 
-    public ImageResponse uploadImage(MultipartFile file, String bearerToken) throws IOException {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    public Resource getImageContent(CachedImage image) {
+        if (image.data() != null) {
+            return new ByteArrayResource(image.data());
+        }
 
-        if (!file.getContentType().startsWith("image")) {
-            throw new FileNotAnImageException("File you are trying to upload is not an image");
+        if (imageCache.fitsContent(image.image().getSize())) {
+            byte[] data = readContent(image.image());
+            imageCache.putContent(image, data);
+            return new ByteArrayResource(data);
         }
+        return imageStore.get(image.image().getContentHash());
+    }
+
+    //empty while the variant is not generated yet, callers fall back to the original
+    public Optional<Resource> getImageVariant(CachedImage image, ImageVariant variant) {
+        return imageVariantService.find(image.image().getContentHash(), variant);
+    }
+
+    //null if the image can't be resized, callers fall back to the original
+    public byte[] getImageRendition(CachedImage image, ImageRendition rendition) {
+        return imageRenditionService.render(image.image().getContentHash(), rendition);
+    }
 
-        if (imageRepository.existsByFilenameAndUser(file.getOriginalFilename(), user)) {
+    @Transactional
+    public ImageResponse uploadImage(MultipartFile file, AuthenticatedUser user) throws IOException {
+        var format = sniffFormat(file);
+
+        if (imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.email())) {
             throw new ImageAlreadyExistsException("Image with that filename already exists");
         }
 
+        var content = storeContent(() -> putContent(file), format.mimeType());
         var image = Image.builder()
                 .filename(file.getOriginalFilename())
-                .mimeType(file.getContentType())
-                .data(file.getBytes())
-                .size(file.getSize())
+                .mimeType(format.mimeType())
+                .contentHash(content.key())
+                .size(content.size())
                 .createdAt(LocalDateTime.now().withNano(0))
-                .user(user)
+                .user(user.reference())
                 .build();
 
         imageRepository.save(image);
+        imageVariantService.generate(content.key());
 
         return ImageResponse.builder()
                 .filename(image.getFilename())
-                .size(file.getSize())
+                .size(image.getSize())
                 .createdAt(image.getCreatedAt())
-                .imageLink(createImageLink(image.getFilename()))
+                .imageLink(imageLinkBuilder.link(image.getFilename()))
+                .versionedLink(imageLinkBuilder.versionedLink(image.getContentHash(), image.getFilename()))
                 .build();
     }
 
+    //Second half of /upload_multi (see ImageBatchUploadService): content of the files is already stored,
+    //the blobs are referenced and all rows are inserted together (jdbc batching), responses keep the order
     @Transactional
-    public ImageResponse changeImage(String filename, MultipartFile file, String bearerToken) throws IOException {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    public List<ImageResponse> saveUploads(AuthenticatedUser user, List<StoredUpload> uploads) throws IOException {
+        List<Image> images = new ArrayList<>(uploads.size());
+        for (StoredUpload upload : uploads) {
+            var file = upload.file();
+            var content = upload.content();
+            String mimeType = upload.format().mimeType();
+            if (acquireContent(content.key(), content.size(), mimeType) && !imageStore.exists(content.key())) {
+                content = putContent(file);
+            }
+            images.add(Image.builder()
+                    .filename(file.getOriginalFilename())
+                    .mimeType(mimeType)
+                    .contentHash(content.key())
+                    .size(content.size())
+                    .createdAt(LocalDateTime.now().withNano(0))
+                    .user(user.reference())
+                    .build());
+        }
 
-        if (!imageRepository.existsByFilenameAndUser(filename, user)) {
-            throw new ImageNotFoundException("Image " + filename + " does not exist");
+        imageRepository.saveAll(images);
+        images.forEach(image -> imageVariantService.generate(image.getContentHash()));
+
+        String linkBase = imageLinkBuilder.base();
+        return images.stream()
+                .map(image -> ImageResponse.builder()
+                        .filename(image.getFilename())
+                        .size(image.getSize())
+                        .createdAt(image.getCreatedAt())
+                        .imageLink(imageLinkBuilder.link(linkBase, image.getFilename()))
+                        .versionedLink(imageLinkBuilder.versionedLink(linkBase, image.getContentHash(), image.getFilename()))
+                        .build())
+                .toList();
+    }
+
+    //last step of a resumable upload (see ImageUploadService), content is already complete in a local file
+    @Transactional
+    public ImageResponse uploadImage(String filename, ImageFormat format, Path content, AuthenticatedUser user)
+            throws IOException {
+        if (imageRepository.existsByFilenameAndUserEmail(filename, user.email())) {
+            throw new ImageAlreadyExistsException("Image with that filename already exists");
         }
 
-        if (!file.getContentType().startsWith("image")) {
-            throw new FileNotAnImageException("File you are trying to upload is not an image");
+        var stored = storeContent(() -> imageStore.put(content), format.mimeType());
+        var image = Image.builder()
+                .filename(filename)
+                .mimeType(format.mimeType())
+                .contentHash(stored.key())
+                .size(stored.size())
+                .createdAt(LocalDateTime.now().withNano(0))
+                .user(user.reference())
+                .build();
+
+        imageRepository.save(image);
+        imageVariantService.generate(stored.key());
+
+        return ImageResponse.builder()
+                .filename(image.getFilename())
+                .size(image.getSize())
+                .createdAt(image.getCreatedAt())
+                .imageLink(imageLinkBuilder.link(image.getFilename()))
+                .versionedLink(imageLinkBuilder.versionedLink(image.getContentHash(), image.getFilename()))
+                .build();
+    }
+
+    //Creates the image from the content hash alone if the server already has that content
+    //(from any user), so the client only has to upload files the server does not have yet.
+    //Size has to match as well, a client sending a wrong hash gets uploadRequired instead of someone else's image
+    @Transactional
+    public ImagePreflightResponse preflightImage(ImagePreflightRequest request, AuthenticatedUser user) {
+        if (imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.email())) {
+            throw new ImageAlreadyExistsException("Image with that filename already exists");
         }
 
-        if (imageRepository.existsByFilenameAndUser(file.getOriginalFilename(), user)) {
+        String contentHash = request.getSha256().toLowerCase(Locale.ROOT);
+        var blob = imageBlobRepository.findById(contentHash)
+                .filter(known -> known.getSize().equals(request.getSize()));
+        //the row may be gone by the time it is locked, if its last image was deleted in the meantime
+        if (blob.isEmpty() || imageBlobRepository.incrementRefCount(contentHash) == 0) {
+            return ImagePreflightResponse.builder()
+                    .filename(request.getFilename())
+                    .uploadRequired(true)
+                    .build();
+        }
+
+        var image = Image.builder()
+                .filename(request.getFilename())
+                .mimeType(blob.get().getMimeType())
+                .contentHash(contentHash)
+                .size(blob.get().getSize())
+                .createdAt(LocalDateTime.now().withNano(0))
+                .user(user.reference())
+                .build();
+
+        imageRepository.save(image);
+
+        return ImagePreflightResponse.builder()
+                .filename(image.getFilename())
+                .uploadRequired(false)
+                .image(ImageResponse.builder()
+                        .filename(image.getFilename())
+                        .size(image.getSize())
+                        .createdAt(image.getCreatedAt())
+                        .imageLink(imageLinkBuilder.link(image.getFilename()))
+                        .versionedLink(imageLinkBuilder.versionedLink(image.getContentHash(), image.getFilename()))
+                        .build())
+                .build();
+    }
+
+    @Transactional
+    public ImageResponse changeImage(String filename, MultipartFile file, AuthenticatedUser user) throws IOException {
+        if (!imageRepository.existsByFilenameAndUserEmail(filename, user.email())) {
+            throw new ImageNotFoundException("Image " + filename + " does not exist");
+        }
+
+        var format = sniffFormat(file);
+
+        if (imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.email())) {
             throw new ImageAlreadyExistsException("Image " + file.getOriginalFilename() + " already exists");
         }
 
-        var optionalImage = imageRepository.findByFilenameAndUser(filename, user);
+        var optionalImage = imageRepository.findByFilenameAndUserEmail(filename, user.email());
         var image = optionalImage.get();
+        String oldContentHash = image.getContentHash();
 
         image.setFilename(file.getOriginalFilename());
-        image.setMimeType(file.getContentType());
-        image.setData(file.getBytes());
-        image.setSize(file.getSize());
+        image.setMimeType(format.mimeType());
+        var content = storeContent(() -> putContent(file), format.mimeType());
+        image.setContentHash(content.key());
+        image.setSize(content.size());
         image.setCreatedAt(LocalDateTime.now().withNano(0));
         imageRepository.save(image);
+        if (oldContentHash == null) {
+            imageDataRepository.clearData(image.getId());
+        }
+        releaseContent(oldContentHash);
+        imageCache.invalidate(user.email(), filename);
+        imageVariantService.generate(content.key());
 
         return ImageResponse.builder()
                 .filename(image.getFilename())
                 .size(image.getSize())
                 .createdAt(image.getCreatedAt())
-                .imageLink(createImageLink(image.getFilename()))
+                .imageLink(imageLinkBuilder.link(image.getFilename()))
+                .versionedLink(imageLinkBuilder.versionedLink(image.getContentHash(), image.getFilename()))
                 .build();
     }
 
     @Transactional
-    public String deleteImage(String filename, String bearerToken) {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
-
-        if (!imageRepository.existsByFilenameAndUser(filename, user)) {
-            throw new ImageNotFoundException("Image " + filename + " does not exist");
-        }
+    public String deleteImage(String filename, AuthenticatedUser user) {
+        var image = imageRepository.findByFilenameAndUserEmail(filename, user.email())
+                .orElseThrow(() -> new ImageNotFoundException(
+                        "Image " + filename + " does not exist"
+                ));
 
-        imageRepository.deleteByFilenameAndUser(filename, user);
+        imageRepository.delete(image);
+        releaseContent(image.getContentHash());
+        imageCache.invalidate(user.email(), filename);
 
         return filename + " image deleted";
     }
 
-    private String createImageLink(String filename) {
-        return ServletUriComponentsBuilder.fromCurrentRequest()
-                .replacePath("/api/v1/image/" + filename)
-                .replaceQuery(null)
-                .toUriString();
+    //Format comes from the first bytes of the content, the content type sent by the client is not trusted.
+    //Only those bytes are read, anything else is rejected before it is hashed and stored
+    static ImageFormat sniffFormat(MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            return ImageFormat.detect(content)
+                    .orElseThrow(() -> new FileNotAnImageException("File you are trying to upload is not an image"));
+        }
+    }
+
+    //Stores the upload (once per content, for all users) and takes a reference on its blob.
+    //If the blob row had to be created, the last image using the content may have just deleted the blob
+    //while this upload found it in the store, it is stored again then
+    private StoredContent storeContent(ContentSource source, String mimeType) throws IOException {
+        var content = source.put();
+        if (acquireContent(content.key(), content.size(), mimeType) && !imageStore.exists(content.key())) {
+            content = source.put();
+        }
+        return content;
     }
 
-    public List<ImageResponse> getImagesByDateTimeAndPage(LocalDateTime date, Integer page, String bearerToken) {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    //puts the content of an upload into ImageStore, can be called more than once
+    @FunctionalInterface
+    private interface ContentSource {
+        StoredContent put() throws IOException;
+    }
 
-        if (!imageRepository.existsByCreatedAtAndUser(date, user)) {
-            throw new ImageNotFoundException("No images found");
+    //streams the upload into the store, file.getBytes() would copy the whole image onto the heap
+    private StoredContent putContent(MultipartFile file) throws IOException {
+        try (InputStream content = file.getInputStream()) {
+            return imageStore.put(content);
         }
+    }
 
-        Pageable pageable = PageRequest.of(page, 2);
-        List<Image> images = imageRepository.findByCreatedAtAndUser(date, user, pageable);
+    //true if this is the first reference to the content
+    private boolean acquireContent(String contentHash, long size, String mimeType) {
+        if (imageBlobRepository.incrementRefCount(contentHash) > 0) {
+            return false;
+        }
+        imageBlobRepository.save(ImageBlob.builder()
+                .contentHash(contentHash)
+                .size(size)
+                .mimeType(mimeType)
+                .refCount(1L)
+                .build());
+        return true;
+    }
 
-        return images.stream()
-                .map(image -> ImageResponse.builder()
-                        .filename(image.getFilename())
-                        .size(image.getSize())
-                        .createdAt(image.getCreatedAt())
-                        .imageLink(createImageLink(image.getFilename()))
-                        .build()).toList();
+    //Same content can belong to images of many users, the blob is only removed with its last reference.
+    //Inside a transaction the file is deleted once it committed, a rollback brings the rows back and they
+    //would point to content that is gone
+    private void releaseContent(String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        imageBlobRepository.decrementRefCount(contentHash);
+        if (imageBlobRepository.deleteUnreferenced(contentHash) == 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    imageStore.delete(contentHash);
+                }
+            });
+        } else {
+            imageStore.delete(contentHash);
+        }
     }
 
-    public List<ImageResponse> getImagesByDateTimeAndPageAndSort(LocalDateTime date, Integer page, String bearerToken, String order) {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    @Transactional(readOnly = true)
+    public ImagePage getImages(LocalDateTime date, String order, Integer limit, String cursor, AuthenticatedUser user) {
+        ImageSort sort = ImageSort.fromOrder(order);
+        ImageCursor after = cursor == null ? null : ImageCursor.decode(cursor, sort);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
 
-        if (!imageRepository.existsByCreatedAtAndUser(date, user)) {
+        //one extra row tells us if there is a next page without a count query
+        List<ImageSummary> images = imageRepository.findPage(user.email(), date, sort, after, pageSize + 1);
+        if (images.isEmpty() && after == null) {
             throw new ImageNotFoundException("No images found");
         }
 
-        Pageable pageable = PageRequest.of(page, 2);
-        List<Image> images;
-
-        if (order.equalsIgnoreCase("asc")) {
-            images = imageRepository.findByCreatedAtAndUserOrderBySizeAsc(date, user, pageable);
-            return images.stream()
-                    .map(image -> ImageResponse.builder()
-                            .filename(image.getFilename())
-                            .size(image.getSize())
-                            .createdAt(image.getCreatedAt())
-                            .imageLink(createImageLink(image.getFilename()))
-                            .build()).toList();
-        } else if (order.equalsIgnoreCase("desc")) {
-            images = imageRepository.findByCreatedAtAndUserOrderBySizeDesc(date, user, pageable);
-            return images.stream()
-                    .map(image -> ImageResponse.builder()
-                            .filename(image.getFilename())
-                            .size(image.getSize())
-                            .createdAt(image.getCreatedAt())
-                            .imageLink(createImageLink(image.getFilename()))
-                            .build()).toList();
+        String next = null;
+        if (images.size() > pageSize) {
+            images = images.subList(0, pageSize);
+            next = ImageCursor.after(images.get(pageSize - 1), sort).encode();
         }
 
-        throw new InvalidSortOrderException("Invalid sort order. Only use ASC or DESC");
+        String linkBase = imageLinkBuilder.base();
+        return ImagePage.builder()
+                .images(images.stream()
+                        .map(image -> toImageResponse(image, linkBase))
+                        .toList())
+                .next(next)
+                .build();
     }
 
-    public List<ImageResponse> sortAllImages(String order, String bearerToken) {
-        String username = jwtService.extractUsername(bearerToken.substring(7));
-        var user = userRepository.findUserByEmail(username);
+    //same as the image list without date filter, order is required and can only be ASC or DESC (by size)
+    @Transactional(readOnly = true)
+    public ImagePage sortAllImages(String order, Integer limit, String cursor, AuthenticatedUser user) {
+        return getImages(null, order, limit, cursor, user);
+    }
 
-        if (!imageRepository.existsByUser(user)) {
-            throw new ImageNotFoundException("No images found");
+    //Writes every image of the user as a json array while rows are read from the db,
+    //neither the rows nor the responses are ever collected into a list
+    @Transactional(readOnly = true)
+    public void exportImages(String order, AuthenticatedUser user, OutputStream out) throws IOException {
+        ImageSort sort = ImageSort.fromOrder(order);
+        String linkBase = imageLinkBuilder.base();
+
+        try (Stream<ImageSummary> images = imageRepository.streamAll(user.email(), sort);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartArray();
+            for (var iterator = images.iterator(); iterator.hasNext(); ) {
+                generator.writeObject(toImageResponse(iterator.next(), linkBase));
+            }
+            generator.writeEndArray();
         }
-        List<Image> images;
-
-        if (order.equalsIgnoreCase("asc")) {
-            images = imageRepository.findByUserOrderBySizeAsc(user);
-            return images.stream()
-                    .map(image -> ImageResponse.builder()
-                            .filename(image.getFilename())
-                            .size(image.getSize())
-                            .createdAt(image.getCreatedAt())
-                            .imageLink(createImageLink(image.getFilename()))
-                            .build()).toList();
-        } else if (order.equalsIgnoreCase("desc")) {
-            images = imageRepository.findByUserOrderBySizeDesc(user);
-            return images.stream()
-                    .map(image -> ImageResponse.builder()
-                            .filename(image.getFilename())
-                            .size(image.getSize())
-                            .createdAt(image.getCreatedAt())
-                            .imageLink(createImageLink(image.getFilename()))
-                            .build()).toList();
-        }
-
-        throw new InvalidSortOrderException("Invalid sort order. Only use ASC or DESC");
+    }
+
+    private ImageResponse toImageResponse(ImageSummary image, String linkBase) {
+        return ImageResponse.builder()
+                .filename(image.getFilename())
+                .size(image.getSize())
+                .createdAt(image.getCreatedAt())
+                .imageLink(imageLinkBuilder.link(linkBase, image.getFilename()))
+                .versionedLink(imageLinkBuilder.versionedLink(linkBase, image.getContentHash(), image.getFilename()))
+                .build();
     }
 }
@@ -0,0 +1,25 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.InvalidSortOrderException;
+
+//Orders supported by image lists, every order ends with the image id so the position of an image
+//in the list is unique and can be used as a keyset cursor (see ImageCursor)
+public enum ImageSort {
+
+    CREATED_AT,
+    SIZE_ASC,
+    SIZE_DESC;
+
+    //order parameter of the api: none means by date, ASC/DESC mean by size
+    public static ImageSort fromOrder(String order) {
+        if (order == null) {
+            return CREATED_AT;
+        } else if (order.equalsIgnoreCase("asc")) {
+            return SIZE_ASC;
+        } else if (order.equalsIgnoreCase("desc")) {
+            return SIZE_DESC;
+        }
+
+        throw new InvalidSortOrderException("Invalid sort order. Only use ASC or DESC");
+    }
+}
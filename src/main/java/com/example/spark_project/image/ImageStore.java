@@ -0,0 +1,44 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageStorageException;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+//Storage for image bytes, the image table only keeps the key (sha-256 of the content) and metadata.
+//Keys are derived from the content, so storing the same bytes twice returns the same key
+public interface ImageStore {
+
+    //content is streamed into the store, hash and size are computed while copying,
+    //so implementations should never hold the whole image in memory
+    StoredContent put(InputStream content);
+
+    //same as put(InputStream) for content that is already in a complete file (e.g. a resumable upload),
+    //implementations may move the file into the store instead of copying it, the caller deletes it if it is
+    //still there and must not write to it anymore
+    default StoredContent put(Path file) {
+        try (InputStream content = Files.newInputStream(file)) {
+            return put(content);
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not read " + file, e);
+        }
+    }
+
+    //returned resource is read lazily, so it can be streamed (or only partially read for range requests)
+    Resource get(String key);
+
+    boolean exists(String key);
+
+    //also removes the variants of the content
+    void delete(String key);
+
+    //Variants (e.g. thumbnails) are derived from the content with the given key and stored next to it,
+    //variant is a short lowercase name
+    void putVariant(String key, String variant, InputStream content);
+
+    Optional<Resource> getVariant(String key, String variant);
+}
@@ -0,0 +1,17 @@
+package com.example.spark_project.image;
+
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+//Projection used by list queries, only selects the columns needed for ImageResponse
+//(id is only used to build the cursor of the next page)
+@Value
+public class ImageSummary {
+
+    Long id;
+    String filename;
+    Long size;
+    LocalDateTime createdAt;
+    String contentHash;
+}
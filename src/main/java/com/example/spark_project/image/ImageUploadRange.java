@@ -0,0 +1,5 @@
+package com.example.spark_project.image;
+
+//bytes [start, end) of a resumable upload the server has received
+public record ImageUploadRange(long start, long end) {
+}
@@ -0,0 +1,24 @@
+package com.example.spark_project.image;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageUploadRequest {
+
+    @NotBlank(message = "Filename is required")
+    private String filename;
+
+    //total size of the file in bytes
+    @NotNull(message = "Size is required")
+    @Positive(message = "Size should be positive")
+    private Long size;
+}
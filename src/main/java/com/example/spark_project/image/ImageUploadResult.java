@@ -0,0 +1,19 @@
+package com.example.spark_project.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+//outcome of one file of /upload_multi, either image or error is set
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageUploadResult {
+
+    private String filename;
+    private boolean success;
+    private ImageResponse image;
+    private String error;
+}
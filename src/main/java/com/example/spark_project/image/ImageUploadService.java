@@ -0,0 +1,239 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.FileNotAnImageException;
+import com.example.spark_project.exception.ImageAlreadyExistsException;
+import com.example.spark_project.exception.ImageStorageException;
+import com.example.spark_project.exception.ImageUploadNotFoundException;
+import com.example.spark_project.exception.InvalidImageUploadException;
+import com.example.spark_project.exception.TooManyImageUploadsException;
+import com.example.spark_project.security.AuthenticatedUser;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Resumable uploads: a session is created with the size of the file, chunks are PUT at their offset
+//in any order (also in parallel) and written straight into a file next to the image store,
+//the client can ask which ranges arrived and resend only the rest, and completing the session stores
+//the file like a normal upload. Sessions live in memory, a restart or inactivity drops them
+@Service
+public class ImageUploadService {
+
+    //heap used per chunk request, chunks themselves can be any size
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ImageService imageService;
+    private final ImageRepository imageRepository;
+    private final Path directory;
+    private final long maxSize;
+    private final Duration expireAfter;
+    //every open session can grow to its whole size on disk until it is completed or expires
+    private final int maxSessionsPerUser;
+    private final int maxSessions;
+    private final Map<String, ImageUploadSession> sessions = new ConcurrentHashMap<>();
+
+    public ImageUploadService(
+            ImageService imageService,
+            ImageRepository imageRepository,
+            @Value("${image.uploads.location:${image.storage.location}/uploads}") String location,
+            @Value("${image.uploads.max-size:100MB}") DataSize maxSize,
+            @Value("${image.uploads.expire-after:24h}") Duration expireAfter,
+            @Value("${image.uploads.max-sessions-per-user:10}") int maxSessionsPerUser,
+            @Value("${image.uploads.max-sessions:1000}") int maxSessions
+    ) {
+        this.imageService = imageService;
+        this.imageRepository = imageRepository;
+        this.directory = Paths.get(location).toAbsolutePath().normalize();
+        this.maxSize = maxSize.toBytes();
+        this.expireAfter = expireAfter;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxSessions = maxSessions;
+        try {
+            Files.createDirectories(directory);
+            //files of sessions from before a restart can't be resumed anymore
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory)) {
+                for (Path leftover : leftovers) {
+                    Files.deleteIfExists(leftover);
+                }
+            }
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not create upload directory " + directory, e);
+        }
+    }
+
+    public ImageUploadStatus createUpload(ImageUploadRequest request, AuthenticatedUser user) {
+        if (request.getSize() > maxSize) {
+            throw new InvalidImageUploadException("Image is bigger than " + DataSize.ofBytes(maxSize).toMegabytes() + "MB");
+        }
+
+        //checked again when the upload is completed, this only saves sending the file for nothing
+        if (imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.email())) {
+            throw new ImageAlreadyExistsException("Image with that filename already exists");
+        }
+
+        String id = UUID.randomUUID().toString();
+        ImageUploadSession session;
+        //counted and added together, concurrent creates can't go past the limits
+        synchronized (sessions) {
+            if (sessions.size() >= maxSessions) {
+                throw new TooManyImageUploadsException("Too many uploads in progress, try again later");
+            }
+            long owned = sessions.values().stream()
+                    .filter(existing -> existing.getOwner().equals(user.email()))
+                    .count();
+            if (owned >= maxSessionsPerUser) {
+                throw new TooManyImageUploadsException(
+                        "You already have " + owned + " uploads in progress, complete or cancel one first"
+                );
+            }
+            try {
+                session = new ImageUploadSession(
+                        id, user.email(), request.getFilename(), request.getSize(), directory.resolve(id)
+                );
+            } catch (IOException e) {
+                throw new ImageStorageException("Could not create upload " + id, e);
+            }
+            sessions.put(id, session);
+        }
+        return status(session);
+    }
+
+    //Streams the chunk into the upload file at offset through a small buffer.
+    //Whatever was written before the client went away counts as received.
+    //The first chunk has to start with the whole header of the image, if it is not one of the accepted
+    //formats the upload is dropped before the rest of the chunk is read
+    public ImageUploadStatus writeChunk(String id, long offset, InputStream content, AuthenticatedUser user) {
+        var session = session(id, user);
+        if (offset < 0 || offset >= session.getSize()) {
+            throw new InvalidImageUploadException("Offset should be between 0 and " + (session.getSize() - 1));
+        }
+
+        //a chunk that arrives while the upload is completed would change the stored content
+        if (!session.beginWrite()) {
+            throw new ImageUploadNotFoundException("Upload " + id + " does not exist");
+        }
+        long position = offset;
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (content; var channel = session.open()) {
+            if (offset == 0) {
+                int headerSize = (int) Math.min(ImageFormat.HEADER_SIZE, session.getSize());
+                byte[] header = content.readNBytes(headerSize);
+                var format = ImageFormat.detect(header);
+                if (format.isEmpty() && header.length < headerSize) {
+                    throw new InvalidImageUploadException("First chunk should have at least " + headerSize + " bytes");
+                }
+                if (format.isEmpty()) {
+                    if (sessions.remove(id, session)) {
+                        discard(session);
+                    }
+                    throw new FileNotAnImageException("File you are trying to upload is not an image");
+                }
+                session.setFormat(format.get());
+                session.write(channel, ByteBuffer.wrap(header), 0);
+                position += header.length;
+            }
+
+            int read;
+            while ((read = content.read(buffer.array(), 0, (int) Math.min(BUFFER_SIZE, session.getSize() - position + 1))) != -1) {
+                if (position + read > session.getSize()) {
+                    throw new InvalidImageUploadException("Chunk goes past the end of the image (" + session.getSize() + " bytes)");
+                }
+                buffer.clear().limit(read);
+                session.write(channel, buffer, position);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new ImageStorageException("Could not write chunk of upload " + id, e);
+        } finally {
+            session.received(offset, position);
+            session.endWrite();
+        }
+        return status(session);
+    }
+
+    public ImageUploadStatus getUpload(String id, AuthenticatedUser user) {
+        return status(session(id, user));
+    }
+
+    //Stores the file once every byte arrived, the session is gone afterwards.
+    //Chunks still being written are waited for, so the stored content can't change after it was hashed
+    public ImageResponse completeUpload(String id, AuthenticatedUser user) throws IOException {
+        var session = session(id, user);
+        if (!session.complete()) {
+            throw new InvalidImageUploadException("Upload " + id + " is missing parts of the image");
+        }
+        //a second complete of the same upload finds nothing
+        if (!sessions.remove(id, session)) {
+            throw new ImageUploadNotFoundException("Upload " + id + " does not exist");
+        }
+        try {
+            return imageService.uploadImage(session.getFilename(), session.getFormat(), session.getFile(), user);
+        } finally {
+            Files.deleteIfExists(session.getFile());
+        }
+    }
+
+    public void cancelUpload(String id, AuthenticatedUser user) {
+        var session = session(id, user);
+        if (sessions.remove(id, session)) {
+            discard(session);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${image.uploads.cleanup-interval:PT10M}")
+    public void removeExpiredUploads() {
+        Instant expired = Instant.now().minus(expireAfter);
+        sessions.values().removeIf(session -> {
+            if (session.getLastAccess().isAfter(expired)) {
+                return false;
+            }
+            discard(session);
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(ImageUploadService::discard);
+        sessions.clear();
+    }
+
+    //sessions of other users are reported as missing, not as forbidden
+    private ImageUploadSession session(String id, AuthenticatedUser user) {
+        var session = sessions.get(id);
+        if (session == null || !session.getOwner().equals(user.email())) {
+            throw new ImageUploadNotFoundException("Upload " + id + " does not exist");
+        }
+        return session;
+    }
+
+    private static ImageUploadStatus status(ImageUploadSession session) {
+        return ImageUploadStatus.builder()
+                .id(session.getId())
+                .filename(session.getFilename())
+                .size(session.getSize())
+                .received(session.receivedRanges())
+                .build();
+    }
+
+    private static void discard(ImageUploadSession session) {
+        try {
+            Files.deleteIfExists(session.getFile());
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.spark_project.image;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//State of one resumable upload: the file the chunks are written into and the byte ranges received so far.
+//Every chunk request opens its own channel and writes at its position, so any number of them can be written
+//at once and idle sessions hold no file descriptor
+@Getter
+class ImageUploadSession {
+
+    private final String id;
+    private final String owner;
+    private final String filename;
+    private final long size;
+    private final Path file;
+    //start -> end of received ranges, never overlapping or touching
+    private final TreeMap<Long, Long> received = new TreeMap<>();
+    //sniffed from the first chunk, null until that arrived
+    private volatile ImageFormat format;
+    private volatile Instant lastAccess = Instant.now();
+    //chunk writes hold the read lock while their channel is open and completing takes the write lock,
+    //so the file is never stored while a chunk is still being written into it. Fair, so new chunks
+    //queue behind a waiting complete instead of starving it
+    @Getter(AccessLevel.NONE)
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+    //set under the write lock, no chunk is written after that
+    @Getter(AccessLevel.NONE)
+    private boolean completed;
+
+    ImageUploadSession(String id, String owner, String filename, long size, Path file)
+            throws IOException {
+        this.id = id;
+        this.owner = owner;
+        this.filename = filename;
+        this.size = size;
+        this.file = file;
+        Files.createFile(file);
+    }
+
+    //false if the upload was completed in the meantime, otherwise endWrite has to follow once
+    //the channel of the chunk is closed
+    boolean beginWrite() {
+        lock.readLock().lock();
+        if (completed) {
+            lock.readLock().unlock();
+            return false;
+        }
+        return true;
+    }
+
+    void endWrite() {
+        lock.readLock().unlock();
+    }
+
+    //Waits for the chunks that are being written and stops any further ones, false (and nothing changes)
+    //if parts of the image are still missing. True again for a second complete, the caller decides
+    //which one stores the file
+    boolean complete() {
+        lock.writeLock().lock();
+        try {
+            if (!completed && !isComplete()) {
+                return false;
+            }
+            completed = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //channel for the writes of one chunk, the caller closes it
+    FileChannel open() throws IOException {
+        lastAccess = Instant.now();
+        return FileChannel.open(file, StandardOpenOption.WRITE);
+    }
+
+    //writes the whole buffer at position, the channel position is not used so concurrent writes don't interfere
+    void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        lastAccess = Instant.now();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    void setFormat(ImageFormat format) {
+        this.format = format;
+    }
+
+    //called once bytes [start, end) are written
+    synchronized void received(long start, long end) {
+        lastAccess = Instant.now();
+        if (start >= end) {
+            return;
+        }
+        var before = received.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        var overlapping = received.subMap(start, true, end, true);
+        for (Map.Entry<Long, Long> range : overlapping.entrySet()) {
+            end = Math.max(end, range.getValue());
+        }
+        overlapping.clear();
+        received.put(start, end);
+    }
+
+    synchronized List<ImageUploadRange> receivedRanges() {
+        List<ImageUploadRange> ranges = new ArrayList<>(received.size());
+        received.forEach((start, end) -> ranges.add(new ImageUploadRange(start, end)));
+        return ranges;
+    }
+
+    synchronized boolean isComplete() {
+        return received.size() == 1 && received.firstKey() == 0 && received.firstEntry().getValue() == size;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.spark_project.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ImageUploadStatus {
+
+    private String id;
+    private String filename;
+    private Long size;
+    //sorted and merged, a client resuming the upload only sends what is not in here
+    private List<ImageUploadRange> received;
+}
@@ -0,0 +1,34 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.InvalidVariantException;
+
+import java.util.Locale;
+
+//Smaller versions of an image generated after upload (see ImageVariantService),
+//all variants are stored as jpeg
+public enum ImageVariant {
+
+    THUMBNAIL,
+    MEDIUM;
+
+    public static final String MIME_TYPE = "image/jpeg";
+
+    //name used in the variant parameter and in the ImageStore
+    public String key() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    //variant parameter of the api, none means the original
+    public static ImageVariant fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (ImageVariant variant : values()) {
+            if (variant.key().equalsIgnoreCase(name)) {
+                return variant;
+            }
+        }
+
+        throw new InvalidVariantException("Invalid variant. Only use thumbnail or medium");
+    }
+}
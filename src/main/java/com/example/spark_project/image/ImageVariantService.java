@@ -0,0 +1,161 @@
+package com.example.spark_project.image;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+//Generates the variants of uploaded images with ImageIO/Java2D on a small, bounded pool of worker threads.
+//Variants depend only on the content, so they are keyed by the content hash and stored next to it.
+//Generation is best effort: when the queue is full the task is dropped, a request for a missing
+//variant queues it again and gets the original in the meantime
+@Component
+public class ImageVariantService {
+
+    private final ImageStore imageStore;
+    private final Map<ImageVariant, Integer> sizes = new EnumMap<>(ImageVariant.class);
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    //content ImageIO can't read (e.g. webp) or that is too big to decode, so requests for its variants don't queue it over and over
+    private final Cache<String, Boolean> unsupported = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .build();
+
+    public ImageVariantService(
+            ImageStore imageStore,
+            @Value("${image.variants.thumbnail-size:200}") int thumbnailSize,
+            @Value("${image.variants.medium-size:800}") int mediumSize,
+            @Value("${image.variants.threads:2}") int threads,
+            @Value("${image.variants.queue-size:100}") int queueSize,
+            @Value("${image.decode.max-pixels:40000000}") long maxPixels
+    ) {
+        this.imageStore = imageStore;
+        this.maxPixels = maxPixels;
+        sizes.put(ImageVariant.THUMBNAIL, thumbnailSize);
+        sizes.put(ImageVariant.MEDIUM, mediumSize);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("image-variant-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                threadFactory
+        );
+    }
+
+    //queues generation of every variant of the content, returns right away
+    public void generate(String contentHash) {
+        if (unsupported.getIfPresent(contentHash) != null || !pending.add(contentHash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    createVariants(contentHash);
+                } finally {
+                    pending.remove(contentHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentHash);
+        }
+    }
+
+    //empty until the variant was generated, generation is queued if it is missing
+    public Optional<Resource> find(String contentHash, ImageVariant variant) {
+        var content = imageStore.getVariant(contentHash, variant.key());
+        if (content.isEmpty()) {
+            generate(contentHash);
+        }
+        return content;
+    }
+
+    void createVariants(String contentHash) {
+        int largest = sizes.values().stream().mapToInt(Integer::intValue).max().orElseThrow();
+        BufferedImage original;
+        try (InputStream content = imageStore.get(contentHash).getInputStream()) {
+            original = ImageDecoder.decode(content, largest, largest, maxPixels);
+        } catch (IOException e) {
+            original = null;
+        }
+        if (original == null) {
+            unsupported.put(contentHash, Boolean.TRUE);
+            return;
+        }
+
+        for (ImageVariant variant : ImageVariant.values()) {
+            int size = sizes.get(variant);
+            BufferedImage scaled = scale(original, size, size);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                ImageIO.write(scaled, "jpeg", out);
+            } catch (IOException e) {
+                //only writes to memory
+                throw new IllegalStateException(e);
+            }
+            imageStore.putVariant(contentHash, variant.key(), new ByteArrayInputStream(out.toByteArray()));
+        }
+    }
+
+    //Fits the image into maxWidth x maxHeight, smaller images keep their size.
+    //Big reductions are done in halving steps, a single bilinear step would skip most of the pixels
+    static BufferedImage scale(BufferedImage original, int maxWidth, int maxHeight) {
+        double ratio = Math.min(1.0, Math.min(
+                (double) maxWidth / original.getWidth(),
+                (double) maxHeight / original.getHeight()
+        ));
+        int targetWidth = Math.max(1, (int) Math.round(original.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(original.getHeight() * ratio));
+
+        BufferedImage current = original;
+        int width = original.getWidth();
+        int height = original.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = draw(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    //jpeg has no alpha channel, transparent parts end up white
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
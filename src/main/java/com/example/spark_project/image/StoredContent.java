@@ -0,0 +1,5 @@
+package com.example.spark_project.image;
+
+//key under which ImageStore saved the content (sha-256) and number of bytes written
+public record StoredContent(String key, long size) {
+}
@@ -0,0 +1,7 @@
+package com.example.spark_project.image;
+
+import org.springframework.web.multipart.MultipartFile;
+
+//uploaded file whose content is already in ImageStore, waiting for its image row
+record StoredUpload(MultipartFile file, ImageFormat format, StoredContent content) {
+}
@@ -0,0 +1,32 @@
+package com.example.spark_project.security;
+
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.List;
+
+//Principal of requests authenticated with a jwt, resolved once by JwtAuthenticationFilter
+//and injected into controllers with @AuthenticationPrincipal.
+//Only what requests need, the User entity (password, images, ...) is not kept around
+public record AuthenticatedUser(Long id, String email, Role role) {
+
+    public static AuthenticatedUser from(User user) {
+        return new AuthenticatedUser(user.getId(), user.getEmail(), user.getRole());
+    }
+
+    public List<GrantedAuthority> authorities() {
+        return List.of(new SimpleGrantedAuthority(role.name()));
+    }
+
+    //Stand-in for the owner of new images, images reference users by email so id and email are enough.
+    //Never saved or read from, it saves loading the user to insert a row
+    public User reference() {
+        return User.builder()
+                .id(id)
+                .email(email)
+                .role(role)
+                .build();
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.spark_project.security;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+//Signs and verifies the HS256 tokens this app issues ({"alg":"HS256"} header, sub/uid/role/iat/iat_ms/exp payload)
+//without jjwt's generic Jackson parsing, reusing one Mac per thread.
+//It only ever accepts: anything it does not recognize (other header, other claims, escaped strings,
+//bad signature, expired token) makes verify return null and the caller hands the token to jjwt,
+//which then accepts it or throws the usual exception
+public class HmacJwtCodec {
+
+    static final String HEADER = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.US_ASCII));
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final ThreadLocal<Mac> mac;
+
+    public HmacJwtCodec(Key key) {
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance("HmacSHA256");
+                instance.init(key);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                //every jvm has HmacSHA256
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    //null if the subject or role would need escaping, userId and role are optional
+    public String sign(String subject, Long userId, String role, long issuedAt, long expiration) {
+        if (!isPlain(subject) || (role != null && !isPlain(role))) {
+            return null;
+        }
+        StringBuilder json = new StringBuilder(128).append("{\"sub\":\"").append(subject).append('"');
+        if (userId != null) {
+            json.append(",\"uid\":").append(userId);
+        }
+        if (role != null) {
+            json.append(",\"role\":\"").append(role).append('"');
+        }
+        String payload = json.append(",\"iat\":").append(issuedAt / 1000)
+                .append(",\"iat_ms\":").append(issuedAt)
+                .append(",\"exp\":").append(expiration / 1000)
+                .append('}')
+                .toString();
+        String content = HEADER + "." + ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        byte[] signature = mac.get().doFinal(content.getBytes(StandardCharsets.US_ASCII));
+        return content + "." + ENCODER.encodeToString(signature);
+    }
+
+    //claims of a valid, unexpired token or null when jjwt has to decide
+    public TokenClaims verify(String token) {
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        if (first != HEADER.length() || second < 0 || token.indexOf('.', second + 1) >= 0
+                || !token.startsWith(HEADER)) {
+            return null;
+        }
+
+        //non ascii characters become '?' and fail the signature check
+        byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer signature;
+        ByteBuffer payload;
+        try {
+            signature = DECODER.decode(ByteBuffer.wrap(bytes, second + 1, bytes.length - second - 1));
+            payload = DECODER.decode(ByteBuffer.wrap(bytes, first + 1, second - first - 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        Mac instance = mac.get();
+        instance.update(bytes, 0, second);
+        if (!MessageDigest.isEqual(instance.doFinal(), signature.array())) {
+            return null;
+        }
+
+        TokenClaims claims = parse(payload.array());
+        return claims == null || claims.isExpired() ? null : claims;
+    }
+
+    //Parses a flat object of "sub"/"role" (strings) and "uid"/"iat"/"iat_ms"/"exp" (integers), exp is required.
+    //Anything else (other keys, duplicates, escapes, nesting, fractions) is left to jjwt
+    static TokenClaims parse(byte[] json) {
+        Parser parser = new Parser(json);
+        String subject = null;
+        String role = null;
+        long userId = -1;
+        long issuedAt = -1;
+        long issuedAtMillis = -1;
+        long expiration = -1;
+
+        parser.skipWhitespace();
+        if (!parser.consume('{')) {
+            return null;
+        }
+        parser.skipWhitespace();
+        if (parser.consume('}')) {
+            return null;
+        }
+        do {
+            parser.skipWhitespace();
+            String key = parser.string();
+            parser.skipWhitespace();
+            if (key == null || !parser.consume(':')) {
+                return null;
+            }
+            parser.skipWhitespace();
+            switch (key) {
+                case "sub" -> {
+                    if (subject != null || (subject = parser.string()) == null) {
+                        return null;
+                    }
+                }
+                case "role" -> {
+                    if (role != null || (role = parser.string()) == null) {
+                        return null;
+                    }
+                }
+                case "uid" -> {
+                    if (userId >= 0 || (userId = parser.number()) < 0) {
+                        return null;
+                    }
+                }
+                case "iat_ms" -> {
+                    if (issuedAtMillis >= 0 || (issuedAtMillis = parser.number()) < 0) {
+                        return null;
+                    }
+                }
+                case "iat" -> {
+                    if (issuedAt >= 0 || (issuedAt = parser.number()) < 0) {
+                        return null;
+                    }
+                }
+                case "exp" -> {
+                    if (expiration >= 0 || (expiration = parser.number()) < 0) {
+                        return null;
+                    }
+                }
+                default -> {
+                    return null;
+                }
+            }
+            parser.skipWhitespace();
+        } while (parser.consume(','));
+
+        if (!parser.consume('}') || !parser.atEnd() || expiration < 0) {
+            return null;
+        }
+        return new TokenClaims(
+                subject,
+                userId < 0 ? null : userId,
+                role,
+                issuedAtMillis >= 0 ? issuedAtMillis : Math.max(issuedAt, 0) * 1000,
+                expiration * 1000
+        );
+    }
+
+    private static boolean isPlain(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Parser {
+
+        //more digits could overflow a long (and no real exp has them)
+        private static final int MAX_DIGITS = 15;
+
+        private final byte[] json;
+        private int position;
+
+        Parser(byte[] json) {
+            this.json = json;
+        }
+
+        boolean consume(char c) {
+            if (position < json.length && json[position] == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void skipWhitespace() {
+            while (position < json.length
+                    && (json[position] == ' ' || json[position] == '\t' || json[position] == '\n' || json[position] == '\r')) {
+                position++;
+            }
+        }
+
+        boolean atEnd() {
+            skipWhitespace();
+            return position == json.length;
+        }
+
+        //null for escaped strings
+        String string() {
+            if (!consume('"')) {
+                return null;
+            }
+            int start = position;
+            while (position < json.length && json[position] != '"') {
+                if (json[position] == '\\' || (json[position] >= 0 && json[position] < 0x20)) {
+                    return null;
+                }
+                position++;
+            }
+            if (position == json.length) {
+                return null;
+            }
+            return new String(json, start, position++ - start, StandardCharsets.UTF_8);
+        }
+
+        //-1 if it's not a non-negative integer
+        long number() {
+            int start = position;
+            long value = 0;
+            while (position < json.length && json[position] >= '0' && json[position] <= '9') {
+                if (position - start == MAX_DIGITS) {
+                    return -1;
+                }
+                value = value * 10 + (json[position++] - '0');
+            }
+            if (position == start || (position < json.length
+                    && (json[position] == '.' || json[position] == 'e' || json[position] == 'E'))) {
+                return -1;
+            }
+            return value;
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.example.spark_project.security;
 
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -17,11 +19,26 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 
 @Component
-@RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
+    private final TokenRevocationService tokenRevocationService;
+    //Trust the uid and role claims instead of loading the user. Changes of the role or
+    //a deleted user then only apply to new tokens, revocations still apply right away
+    private final boolean stateless;
+
+    public JwtAuthenticationFilter(
+            JwtService jwtService,
+            UserDetailsService userDetailsService,
+            TokenRevocationService tokenRevocationService,
+            @Value("${jwt.stateless:false}") boolean stateless
+    ) {
+        this.jwtService = jwtService;
+        this.userDetailsService = userDetailsService;
+        this.tokenRevocationService = tokenRevocationService;
+        this.stateless = stateless;
+    }
 
     @Override
     protected void doFilterInternal(
@@ -31,7 +48,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     ) throws ServletException, IOException {
         final String authHeader = request.getHeader("Authorization");
         final String jwt;
-        final String username;
+        final TokenClaims claims;
 
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             filterChain.doFilter(request, response);
@@ -39,14 +56,14 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         jwt = authHeader.substring(7);
-        username = jwtService.extractUsername(jwt);
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-            if (jwtService.isTokenValid(jwt, userDetails)) {
+        claims = jwtService.extractAllClaims(jwt);
+        if (claims.subject() != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+            AuthenticatedUser principal = authenticate(jwt, claims);
+            if (principal != null && !tokenRevocationService.isRevoked(principal.id(), claims.issuedAt())) {
                 UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                        userDetails,
+                        principal,
                         null,
-                        userDetails.getAuthorities()
+                        principal.authorities()
                 );
                 authToken.setDetails(
                         new WebAuthenticationDetailsSource().buildDetails(request)
@@ -56,4 +73,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
         filterChain.doFilter(request, response);
     }
+
+    //controllers get the compact principal, not the User entity
+    private AuthenticatedUser authenticate(String jwt, TokenClaims claims) {
+        if (stateless && claims.userId() != null && claims.role() != null) {
+            return claims.isExpired()
+                    ? null
+                    : new AuthenticatedUser(claims.userId(), claims.subject(), Role.valueOf(claims.role()));
+        }
+        //older tokens without the claims
+        UserDetails userDetails = this.userDetailsService.loadUserByUsername(claims.subject());
+        return jwtService.isTokenValid(jwt, userDetails) ? AuthenticatedUser.from((User) userDetails) : null;
+    }
 }
@@ -1,31 +1,79 @@
 package com.example.spark_project.security;
 
-import io.jsonwebtoken.Claims;
+import com.example.spark_project.user.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Service
-@RequiredArgsConstructor
 public class JwtService {
     private final static String SECRET_KEY = "66556A586E3272357538782F413F4428472B4B6250655367566B597033733676";
+    static final long TOKEN_LIFETIME = 1000 * 60 * 60;
+    //let JwtAuthenticationFilter authenticate without loading the user (see jwt.stateless)
+    static final String USER_ID_CLAIM = "uid";
+    static final String ROLE_CLAIM = "role";
+    //issue time in millis, revocations compare against it (see TokenRevocationService)
+    static final String ISSUED_AT_MILLIS_CLAIM = "iat_ms";
+
+    private final Key signingKey = getSigningKey();
+    private final JwtParser parser = Jwts.parserBuilder()
+            .setSigningKey(signingKey)
+            .build();
+    //fast path for our own tokens, jjwt handles everything else
+    private final HmacJwtCodec codec = new HmacJwtCodec(signingKey);
+    //Claims of tokens that were already verified, keyed by the sha-256 of the token (not the token itself).
+    //Clients reuse a token for its whole lifetime, so most requests only hash the token and look it up.
+    //An entry never outlives the token's exp
+    private final Cache<String, TokenClaims> claimsCache;
+
+    public JwtService(@Value("${jwt.claims-cache.max-size:10000}") long maxSize) {
+        this.claimsCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, TokenClaims>() {
+                    @Override
+                    public long expireAfterCreate(String key, TokenClaims claims, long currentTime) {
+                        long millis = claims.expiration() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, TokenClaims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, TokenClaims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
 
     public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+        return extractClaim(token, TokenClaims::subject);
     }
 
-    public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
+    public <T> T extractClaim(String token, Function<TokenClaims, T> claimsResolver) {
+        final TokenClaims claims = extractAllClaims(token);
         return claimsResolver.apply(claims);
     }
 
@@ -37,39 +85,62 @@ public class JwtService {
             Map<String, Object> extraClaims,
             UserDetails userDetails
     ) {
+        long now = System.currentTimeMillis();
+        Long userId = null;
+        String role = null;
+        if (userDetails instanceof User user) {
+            userId = user.getId();
+            role = user.getRole() == null ? null : user.getRole().name();
+        }
+        if (extraClaims.isEmpty()) {
+            String token = codec.sign(userDetails.getUsername(), userId, role, now, now + TOKEN_LIFETIME);
+            if (token != null) {
+                return token;
+            }
+        }
+
+        Map<String, Object> claims = new HashMap<>(extraClaims);
+        claims.put(ISSUED_AT_MILLIS_CLAIM, now);
+        if (userId != null) {
+            claims.put(USER_ID_CLAIM, userId);
+        }
+        if (role != null) {
+            claims.put(ROLE_CLAIM, role);
+        }
         return Jwts
                 .builder()
-                .setClaims(extraClaims)
+                .setClaims(claims)
                 .setSubject(userDetails.getUsername())
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60))
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + TOKEN_LIFETIME))
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
-    }
-
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        final TokenClaims claims = extractAllClaims(token);
+        return (claims.subject().equals(userDetails.getUsername())) && !claims.isExpired();
     }
 
-    private Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+    //invalid and expired tokens throw and are never cached
+    public TokenClaims extractAllClaims(String token) {
+        return claimsCache.get(digest(token), key -> {
+            TokenClaims claims = codec.verify(token);
+            return claims != null ? claims : TokenClaims.from(parser.parseClaimsJws(token).getBody());
+        });
     }
 
-    private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            //every jvm has sha-256
+            throw new IllegalStateException(e);
+        }
     }
 
-    private Key getSigningKey() {
+    private static Key getSigningKey() {
         byte[] keyBytes = Decoders.BASE64.decode(SECRET_KEY);
         return Keys.hmacShaKeyFor(keyBytes);
     }
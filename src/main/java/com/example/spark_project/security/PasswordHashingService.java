@@ -0,0 +1,64 @@
+package com.example.spark_project.security;
+
+import com.example.spark_project.exception.PasswordHashingBusyException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+//Runs BCrypt work (register, login, password reset) on its own small pool, so a burst of logins
+//can only use that many cores and the rest of the app keeps its cpu. When the pool and its queue
+//are full the request fails right away with PasswordHashingBusyException (503) instead of piling up
+@Service
+public class PasswordHashingService {
+
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHashingService(
+            @Value("${security.password.hashing.threads:2}") int threads,
+            @Value("${security.password.hashing.queue-size:50}") int queueSize
+    ) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("password-hashing-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                threadFactory
+        );
+    }
+
+    //runs the task on the pool and waits for it, exceptions of the task are rethrown as they are
+    public <T> T execute(Supplier<T> task) {
+        Future<T> result;
+        try {
+            result = executor.submit(task::get);
+        } catch (RejectedExecutionException e) {
+            throw new PasswordHashingBusyException("Server is busy, try again later");
+        }
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("Request was interrupted");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
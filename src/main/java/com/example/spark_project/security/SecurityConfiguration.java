@@ -24,6 +24,8 @@ public class SecurityConfiguration {
                 .csrf()
                 .disable()
                 .authorizeHttpRequests()
+                .requestMatchers("/api/v1/user/logout")
+                .authenticated()
                 .requestMatchers("/api/v1/user/**")
                 .permitAll()
                 .anyRequest()
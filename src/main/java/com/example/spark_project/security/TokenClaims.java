@@ -0,0 +1,25 @@
+package com.example.spark_project.security;
+
+import io.jsonwebtoken.Claims;
+
+//The claims this app puts into its tokens, times are epoch millis.
+//userId and role (uid and role claims) are null in tokens issued before they were added,
+//issuedAt comes from iat_ms (iat only has whole seconds, too coarse for revocations) when the token has it
+public record TokenClaims(String subject, Long userId, String role, long issuedAt, long expiration) {
+
+    static TokenClaims from(Claims claims) {
+        return new TokenClaims(
+                claims.getSubject(),
+                claims.get(JwtService.USER_ID_CLAIM) instanceof Number userId ? userId.longValue() : null,
+                claims.get(JwtService.ROLE_CLAIM) instanceof String role ? role : null,
+                claims.get(JwtService.ISSUED_AT_MILLIS_CLAIM) instanceof Number issuedAt
+                        ? issuedAt.longValue()
+                        : claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime(),
+                claims.getExpiration() == null ? Long.MAX_VALUE : claims.getExpiration().getTime()
+        );
+    }
+
+    public boolean isExpired() {
+        return expiration < System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.spark_project.security;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+//Tokens of the user issued before (or at) revokedBefore are rejected (logout, password reset).
+//Rows are only needed while such tokens could still be unexpired, see TokenRevocationService
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "token_revocation"
+)
+public class TokenRevocation {
+
+    @Id
+    @Column(
+            name = "user_id",
+            updatable = false
+    )
+    private Long userId;
+
+    //millis, same precision as the iat_ms claim
+    @Column(
+            name = "revoked_before",
+            nullable = false
+    )
+    private Instant revokedBefore;
+}
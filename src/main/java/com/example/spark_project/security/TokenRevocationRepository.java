@@ -0,0 +1,22 @@
+package com.example.spark_project.security;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface TokenRevocationRepository extends JpaRepository<TokenRevocation, Long> {
+
+    List<TokenRevocation> findByRevokedBeforeAfter(Instant cutoff);
+
+    @Transactional
+    @Modifying
+    @Query("delete from TokenRevocation r where r.revokedBefore <= :cutoff")
+    int deleteExpired(@Param("cutoff") Instant cutoff);
+}
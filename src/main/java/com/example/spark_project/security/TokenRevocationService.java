@@ -0,0 +1,63 @@
+package com.example.spark_project.security;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+
+//Revokes every token of a user issued before a point in time (logout, password reset).
+//Checks only read an in-memory copy of the token_revocation table, so authentication does not need
+//the database. The copy is refreshed periodically (revocations of other instances show up then),
+//rows older than the token lifetime are dropped since every token they could revoke has expired
+@Service
+public class TokenRevocationService {
+
+    private final TokenRevocationRepository repository;
+    //user id -> epoch millis, replaced as a whole
+    private volatile Map<Long, Long> revocations = Map.of();
+
+    public TokenRevocationService(TokenRevocationRepository repository) {
+        this.repository = repository;
+    }
+
+    //millis, like the iat_ms claim the check compares against
+    public void revoke(Long userId) {
+        Instant revokedBefore = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        repository.save(new TokenRevocation(userId, revokedBefore));
+        synchronized (this) {
+            Map<Long, Long> updated = new HashMap<>(revocations);
+            updated.put(userId, revokedBefore.toEpochMilli());
+            revocations = updated;
+        }
+    }
+
+    //A token issued in the same millisecond as the revocation is revoked as well, it can't be told
+    //whether it came before or after. Tokens without iat_ms only have whole seconds and are revoked
+    //for the whole second
+    public boolean isRevoked(Long userId, long issuedAt) {
+        Long revokedBefore = revocations.get(userId);
+        return revokedBefore != null && issuedAt <= revokedBefore;
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.revocations.refresh-interval:PT30S}")
+    public void refresh() {
+        Instant cutoff = Instant.now().minusMillis(JwtService.TOKEN_LIFETIME);
+        repository.deleteExpired(cutoff);
+        Map<Long, Long> loaded = new HashMap<>();
+        for (TokenRevocation revocation : repository.findByRevokedBeforeAfter(cutoff)) {
+            loaded.put(revocation.getUserId(), revocation.getRevokedBefore().toEpochMilli());
+        }
+        synchronized (this) {
+            //keeps local revocations saved after the rows were read
+            revocations.forEach((userId, revokedBefore) -> {
+                if (revokedBefore > cutoff.toEpochMilli()) {
+                    loaded.merge(userId, revokedBefore, Math::max);
+                }
+            });
+            revocations = loaded;
+        }
+    }
+}
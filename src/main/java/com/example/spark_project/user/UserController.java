@@ -1,10 +1,12 @@
 package com.example.spark_project.user;
 
+import com.example.spark_project.security.AuthenticatedUser;
 import jakarta.mail.MessagingException;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.UnsupportedEncodingException;
@@ -46,4 +48,12 @@ public class UserController {
         service.resetPassword(request, resetToken);
         return ResponseEntity.ok("Password has been reset");
     }
+
+    @PostMapping("/logout")
+    public ResponseEntity<String> logout(
+            @AuthenticationPrincipal AuthenticatedUser user
+    ) {
+        service.logout(user);
+        return ResponseEntity.ok("Logged out");
+    }
 }
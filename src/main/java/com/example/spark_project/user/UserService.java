@@ -3,7 +3,10 @@ package com.example.spark_project.user;
 import com.example.spark_project.exception.InvalidPasswordResetTokenException;
 import com.example.spark_project.exception.InvalidRepeatedPasswordException;
 import com.example.spark_project.exception.UserAlreadyExistsException;
+import com.example.spark_project.security.AuthenticatedUser;
 import com.example.spark_project.security.JwtService;
+import com.example.spark_project.security.PasswordHashingService;
+import com.example.spark_project.security.TokenRevocationService;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
@@ -27,6 +30,8 @@ public class UserService {
     private final JwtService jwtService;
     private final AuthenticationManager authenticationManager;
     private final JavaMailSender mailSender;
+    private final TokenRevocationService tokenRevocationService;
+    private final PasswordHashingService passwordHashingService;
 
     public AuthenticationResponse register(RegisterRequest request) {
         if (repository.existsByEmail(request.getEmail())) {
@@ -36,12 +41,14 @@ public class UserService {
             throw new InvalidRepeatedPasswordException("Password do not match");
         }
 
+        //both passwords are equal, one hash is enough for both columns
+        String password = passwordHashingService.execute(() -> passwordEncoder.encode(request.getPassword()));
         var user = User.builder()
                 .firstName(request.getFirstName())
                 .lastName(request.getLastName())
                 .email(request.getEmail())
-                .password(passwordEncoder.encode(request.getPassword()))
-                .repeatPassword(passwordEncoder.encode(request.getRepeatPassword()))
+                .password(password)
+                .repeatPassword(password)
                 .role(Role.USER)
                 .build();
 
@@ -58,12 +65,13 @@ public class UserService {
         if (!repository.existsByEmail(request.getEmail())) {
             throw new UsernameNotFoundException("User with " + request.getEmail() + " not found");
         }
-        authenticationManager.authenticate(
+        //also rehashes the password when the bcrypt strength was raised (see ApplicationConfig)
+        passwordHashingService.execute(() -> authenticationManager.authenticate(
                 new UsernamePasswordAuthenticationToken(
                         request.getEmail(),
                         request.getPassword()
                 )
-        );
+        ));
 
         var user = repository.findByEmail(request.getEmail())
                 .orElseThrow();
@@ -121,11 +129,19 @@ public class UserService {
         }
 
         var user = repository.findByResetPasswordToken(resetToken);
-        user.setPassword(passwordEncoder.encode(request.getPassword()));
-        user.setRepeatPassword(passwordEncoder.encode(request.getRepeatPassword()));
+        String password = passwordHashingService.execute(() -> passwordEncoder.encode(request.getPassword()));
+        user.setPassword(password);
+        user.setRepeatPassword(password);
         user.setResetPasswordToken(null);
 
         repository.save(user);
+        //tokens issued with the old password stop working
+        tokenRevocationService.revoke(user.getId());
+    }
+
+    //revokes every token of the user, not only the one used for the request
+    public void logout(AuthenticatedUser user) {
+        tokenRevocationService.revoke(user.id());
     }
 
     //make sure when updating password to update resetToken to null,
@@ -0,0 +1,76 @@
+package com.example.spark_project.benchmark;
+
+import com.example.spark_project.image.ImageLinkBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Links for a 1,000 image list: builder from the current request per image (old createImageLink)
+// against base resolved once and concatenated.
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+//           -Dexec.mainClass=com.example.spark_project.benchmark.ImageLinkBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageLinkBenchmark {
+
+    private List<String> filenames;
+    private ImageLinkBuilder imageLinkBuilder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        filenames = IntStream.range(0, 1_000)
+                .mapToObj(i -> "Earth" + i + ".gif")
+                .toList();
+        imageLinkBuilder = new ImageLinkBuilder("");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/image/");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.setQueryString("order=ASC&limit=100");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public List<String> builderPerImage() {
+        return filenames.stream()
+                .map(filename -> ServletUriComponentsBuilder.fromCurrentRequest()
+                        .replacePath("/api/v1/image/" + filename)
+                        .replaceQuery(null)
+                        .toUriString())
+                .toList();
+    }
+
+    @Benchmark
+    public List<String> baseOncePerRequest() {
+        String base = imageLinkBuilder.base();
+        return filenames.stream()
+                .map(filename -> imageLinkBuilder.link(base, filename))
+                .toList();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ImageLinkBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.spark_project.benchmark;
+
+import com.example.spark_project.security.HmacJwtCodec;
+import com.example.spark_project.security.TokenClaims;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.Key;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Cold (uncached) verification and signing of a sub/uid/role/iat/iat_ms/exp token: jjwt as used by JwtService
+// before the fast path against HmacJwtCodec. The gc profiler reports the allocation rate (gc.alloc.rate.norm).
+// Run with (jmh forks a jvm, so it needs a real classpath rather than exec:java):
+//   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) com.example.spark_project.benchmark.JwtBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String SECRET_KEY = "66556A586E3272357538782F413F4428472B4B6250655367566B597033733676";
+    private static final String EMAIL = "john_evans@gmail.com";
+
+    private Key key;
+    private JwtParser parser;
+    private HmacJwtCodec codec;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET_KEY));
+        parser = Jwts.parserBuilder().setSigningKey(key).build();
+        codec = new HmacJwtCodec(key);
+        token = jjwtSign();
+    }
+
+    @Benchmark
+    public Claims jjwtVerify() {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    @Benchmark
+    public TokenClaims codecVerify() {
+        return codec.verify(token);
+    }
+
+    @Benchmark
+    public String jjwtSign() {
+        long now = System.currentTimeMillis();
+        return Jwts.builder()
+                .setClaims(new HashMap<>(Map.of("uid", 1L, "role", "USER", "iat_ms", now)))
+                .setSubject(EMAIL)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + 1000 * 60 * 60))
+                .signWith(key, SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    @Benchmark
+    public String codecSign() {
+        long now = System.currentTimeMillis();
+        return codec.sign(EMAIL, 1L, "USER", now, now + 1000 * 60 * 60);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JwtBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageStorageException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+class FileSystemImageStoreTest {
+
+    private static final String CONTENT_HASH = "054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8";
+
+    @TempDir
+    private Path root;
+
+    private FileSystemImageStore imageStore;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() {
+        imageStore = new FileSystemImageStore(root.toString());
+        data = new byte[] {0x00, 0x01, 0x02, 0x03};
+    }
+
+    @Test
+    void testPutShouldStoreContentUnderItsSha256() throws IOException {
+        // when
+        StoredContent content = imageStore.put(new ByteArrayInputStream(data));
+        String key = content.key();
+
+        // then
+        assertThat(key).isEqualTo(CONTENT_HASH);
+        assertThat(content.size()).isEqualTo(data.length);
+        assertThat(Files.exists(root.resolve("05").resolve("4e").resolve(CONTENT_HASH))).isTrue();
+        assertThat(imageStore.get(key).getInputStream().readAllBytes()).isEqualTo(data);
+    }
+
+    @Test
+    void testPutSameContentTwiceShouldReturnSameKey() {
+        // when
+        String first = imageStore.put(new ByteArrayInputStream(data)).key();
+        String second = imageStore.put(new ByteArrayInputStream(data)).key();
+
+        // then
+        assertThat(second).isEqualTo(first);
+        assertThat(root.resolve("tmp")).isEmptyDirectory();
+    }
+
+    @Test
+    void testPutFileShouldMoveFileIntoStore() throws IOException {
+        // given
+        Path file = Files.write(root.resolve("upload"), data);
+
+        // when
+        StoredContent content = imageStore.put(file);
+
+        // then
+        assertThat(content.key()).isEqualTo(CONTENT_HASH);
+        assertThat(content.size()).isEqualTo(data.length);
+        assertThat(imageStore.get(CONTENT_HASH).getInputStream().readAllBytes()).isEqualTo(data);
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void testPutFileWithKnownContentShouldKeepStoredBlob() throws IOException {
+        // given
+        imageStore.put(new ByteArrayInputStream(data));
+        Path file = Files.write(root.resolve("upload"), data);
+
+        // when
+        StoredContent content = imageStore.put(file);
+        Files.write(file, new byte[] {0x00});
+
+        // then
+        assertThat(content.key()).isEqualTo(CONTENT_HASH);
+        assertThat(imageStore.get(CONTENT_HASH).getInputStream().readAllBytes()).isEqualTo(data);
+    }
+
+    @Test
+    void testDeleteShouldRemoveContent() {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(data)).key();
+
+        // when
+        imageStore.delete(key);
+
+        // then
+        assertThat(imageStore.exists(key)).isFalse();
+        assertThatThrownBy(() -> imageStore.get(key))
+                .isInstanceOf(ImageStorageException.class)
+                .hasMessageContaining("is missing from storage");
+    }
+
+    @Test
+    void testPutVariantShouldStoreItNextToContent() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(data)).key();
+        byte[] thumbnail = new byte[] {0x04, 0x05};
+
+        // when
+        imageStore.putVariant(key, "thumbnail", new ByteArrayInputStream(thumbnail));
+
+        // then
+        assertThat(Files.exists(root.resolve("05").resolve("4e").resolve(CONTENT_HASH + ".thumbnail"))).isTrue();
+        assertThat(imageStore.getVariant(key, "thumbnail")).isPresent();
+        assertThat(imageStore.getVariant(key, "thumbnail").get().getInputStream().readAllBytes()).isEqualTo(thumbnail);
+        assertThat(imageStore.getVariant(key, "medium")).isEmpty();
+    }
+
+    @Test
+    void testDeleteShouldRemoveVariants() {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(data)).key();
+        imageStore.putVariant(key, "thumbnail", new ByteArrayInputStream(data));
+
+        // when
+        imageStore.delete(key);
+
+        // then
+        assertThat(imageStore.getVariant(key, "thumbnail")).isEmpty();
+    }
+
+    @Test
+    void testGetVariantShouldRejectInvalidVariant() {
+        // then
+        assertThatThrownBy(() -> imageStore.getVariant(CONTENT_HASH, "../x"))
+                .isInstanceOf(ImageStorageException.class)
+                .hasMessageContaining("Invalid image variant");
+    }
+
+    @Test
+    void testGetShouldRejectInvalidKey() {
+        // then
+        assertThatThrownBy(() -> imageStore.get("../../etc/passwd"))
+                .isInstanceOf(ImageStorageException.class)
+                .hasMessageContaining("Invalid image key");
+    }
+}
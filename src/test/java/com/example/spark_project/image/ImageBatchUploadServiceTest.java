@@ -0,0 +1,145 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.security.AuthenticatedUser;
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ImageBatchUploadServiceTest {
+
+    private static final String CONTENT_HASH = "054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8";
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private ImageRepository imageRepository;
+
+    @Mock
+    private ImageStore imageStore;
+
+    private ImageBatchUploadService imageBatchUploadService;
+    private User user;
+    private AuthenticatedUser principal;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() {
+        imageBatchUploadService = new ImageBatchUploadService(
+                imageService, imageRepository, imageStore, 2, 10
+        );
+        user = User.builder()
+                .firstName("John")
+                .lastName("Evans")
+                .email("john_evans@gmail.com")
+                .password("Test.123")
+                .repeatPassword("Test.123")
+                .role(Role.USER)
+                .build();
+        principal = AuthenticatedUser.from(user);
+        data = new byte[] {'G', 'I', 'F', '8', '9', 'a', 0x01, 0x00};
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageBatchUploadService.shutdown();
+    }
+
+    @Test
+    void testUploadImagesShouldReportEveryFile() throws IOException {
+        // given
+        List<MultipartFile> files = List.of(
+                new MockMultipartFile("files", "Earth.gif", "image/gif", data),
+                new MockMultipartFile("files", "notes.txt", "image/gif", "not an image".getBytes()),
+                new MockMultipartFile("files", "Mars.gif", "image/gif", data),
+                new MockMultipartFile("files", "Earth.gif", "image/gif", data)
+        );
+
+        // when
+        when(imageRepository.findExistingFilenames(eq(user.getEmail()), any())).thenReturn(List.of("Mars.gif"));
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageService.saveUploads(eq(principal), anyList())).thenReturn(List.of(
+                ImageResponse.builder().filename("Earth.gif").size((long) data.length).build()
+        ));
+
+        List<ImageUploadResult> results = imageBatchUploadService.uploadImages(files, principal);
+
+        // then
+        assertThat(results).extracting(ImageUploadResult::getFilename)
+                .containsExactly("Earth.gif", "notes.txt", "Mars.gif", "Earth.gif");
+        assertThat(results).extracting(ImageUploadResult::isSuccess)
+                .containsExactly(true, false, false, false);
+        assertThat(results.get(1).getError()).isEqualTo("File you are trying to upload is not an image");
+        assertThat(results.get(2).getError()).isEqualTo("Image with that filename already exists");
+        assertThat(results.get(3).getError()).isEqualTo("Image with that filename is already in this upload");
+        verify(imageRepository, times(1)).findExistingFilenames(eq(user.getEmail()), any());
+        verify(imageStore, times(1)).put(any(InputStream.class));
+    }
+
+    @Test
+    void testUploadImagesShouldReportFilesThatCouldNotBeStored() throws IOException {
+        // given
+        List<MultipartFile> files = List.of(
+                new MockMultipartFile("files", "Earth.gif", "image/gif", data),
+                new MockMultipartFile("files", "Earth2.gif", "image/gif", new byte[] {'B', 'M'})
+        );
+
+        // when
+        when(imageRepository.findExistingFilenames(eq(user.getEmail()), any())).thenReturn(List.of());
+        when(imageStore.put(any(InputStream.class))).thenAnswer(invocation -> {
+            byte[] content = invocation.getArgument(0, InputStream.class).readAllBytes();
+            if (content.length == 2) {
+                throw new IOException("disk full");
+            }
+            return new StoredContent(CONTENT_HASH, content.length);
+        });
+        when(imageService.saveUploads(eq(principal), anyList())).thenReturn(List.of(
+                ImageResponse.builder().filename("Earth.gif").size((long) data.length).build()
+        ));
+
+        List<ImageUploadResult> results = imageBatchUploadService.uploadImages(files, principal);
+
+        // then
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(1).isSuccess()).isFalse();
+        assertThat(results.get(1).getError()).isEqualTo("Could not store image");
+    }
+
+    @Test
+    void testUploadImagesShouldFailBatchIfImagesCouldNotBeSaved() throws IOException {
+        // given
+        List<MultipartFile> files = List.of(
+                new MockMultipartFile("files", "Earth.gif", "image/gif", data),
+                new MockMultipartFile("files", "Earth2.gif", "image/gif", data)
+        );
+
+        // when
+        when(imageRepository.findExistingFilenames(eq(user.getEmail()), any())).thenReturn(List.of());
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageService.saveUploads(eq(principal), anyList())).thenThrow(new IllegalStateException("db down"));
+
+        List<ImageUploadResult> results = imageBatchUploadService.uploadImages(files, principal);
+
+        // then
+        assertThat(results).extracting(ImageUploadResult::getError)
+                .containsExactly("Could not save image", "Could not save image");
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.spark_project.image;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.jdbc.EmbeddedDatabaseConnection;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect")
+@AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
+class ImageBlobRepositoryTest {
+
+    private static final String CONTENT_HASH = "054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8";
+
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        imageBlobRepository.save(ImageBlob.builder()
+                .contentHash(CONTENT_HASH)
+                .size(1024L)
+                .mimeType("image/gif")
+                .refCount(1L)
+                .build());
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void testIncrementRefCountShouldAddReference() {
+        // when
+        int updated = imageBlobRepository.incrementRefCount(CONTENT_HASH);
+        entityManager.clear();
+
+        // then
+        assertThat(updated).isEqualTo(1);
+        assertThat(imageBlobRepository.findById(CONTENT_HASH).orElseThrow().getRefCount()).isEqualTo(2L);
+    }
+
+    @Test
+    void testIncrementRefCountOfUnknownContentShouldUpdateNothing() {
+        // when
+        int updated = imageBlobRepository.incrementRefCount("unknown");
+
+        // then
+        assertThat(updated).isZero();
+    }
+
+    @Test
+    void testDeleteUnreferencedShouldKeepBlobWithReferences() {
+        // when
+        imageBlobRepository.incrementRefCount(CONTENT_HASH);
+        imageBlobRepository.decrementRefCount(CONTENT_HASH);
+        int deleted = imageBlobRepository.deleteUnreferenced(CONTENT_HASH);
+        entityManager.clear();
+
+        // then
+        assertThat(deleted).isZero();
+        assertThat(imageBlobRepository.findById(CONTENT_HASH)).isPresent();
+    }
+
+    @Test
+    void testDeleteUnreferencedShouldDeleteBlobWithoutReferences() {
+        // when
+        imageBlobRepository.decrementRefCount(CONTENT_HASH);
+        int deleted = imageBlobRepository.deleteUnreferenced(CONTENT_HASH);
+        entityManager.clear();
+
+        // then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(imageBlobRepository.findById(CONTENT_HASH)).isEmpty();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.security.AuthenticatedUser;
+import com.example.spark_project.security.JwtService;
+import com.example.spark_project.security.TokenRevocationService;
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+//ImageControllerTest runs without filters, this one checks the caching headers
+//that are left after the spring security filter chain (which adds no-store by default)
+@WebMvcTest(ImageController.class)
+class ImageControllerSecurityHeadersTest {
+
+    private static final String END_POINT_PATH = "/api/v1/image";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private ImageUploadService imageUploadService;
+
+    @MockBean
+    private ImageBatchUploadService imageBatchUploadService;
+
+    @MockBean
+    private JwtService jwtService;
+
+    @MockBean
+    private TokenRevocationService tokenRevocationService;
+
+    private final byte[] data = new byte[] {'G', 'I', 'F', '8', '9', 'a'};
+
+    private AuthenticatedUser principal;
+    private Image image;
+    private CachedImage cachedImage;
+
+    @BeforeEach
+    void setUp() {
+        User user = User.builder()
+                .id(1L)
+                .firstName("John")
+                .lastName("Evans")
+                .email("john_evans@gmail.com")
+                .password("Test.123")
+                .repeatPassword("Test.123")
+                .role(Role.USER)
+                .build();
+        principal = AuthenticatedUser.from(user);
+
+        image = Image.builder()
+                .filename("Earth.gif")
+                .mimeType("image/gif")
+                .contentHash("054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8")
+                .size(6L)
+                .createdAt(LocalDateTime.now().withNano(0))
+                .user(user)
+                .build();
+        cachedImage = new CachedImage(user.getEmail(), image, null);
+    }
+
+    @Test
+    void getImageShouldBeRevalidatedNotUncached() throws Exception {
+        // when
+        when(imageService.getImage("Earth.gif", principal)).thenReturn(cachedImage);
+        when(imageService.getImageContent(cachedImage)).thenReturn(new ByteArrayResource(data));
+
+        // then
+        mockMvc.perform(get(END_POINT_PATH + "/{filename}", "Earth.gif")
+                .with(authentication(authenticationToken())))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andExpect(header().doesNotExist(HttpHeaders.PRAGMA))
+                .andExpect(header().doesNotExist(HttpHeaders.EXPIRES))
+                .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void searchImageShouldBeRevalidatedNotUncached() throws Exception {
+        // when
+        when(imageService.getImage("Earth.gif", principal)).thenReturn(cachedImage);
+        when(imageService.getImageContent(cachedImage)).thenReturn(new ByteArrayResource(data));
+
+        // then
+        mockMvc.perform(get(END_POINT_PATH + "/search")
+                .param("filename", "Earth.gif")
+                .with(authentication(authenticationToken())))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andExpect(header().doesNotExist(HttpHeaders.PRAGMA));
+    }
+
+    @Test
+    void getImageVersionShouldKeepImmutableCacheControl() throws Exception {
+        // when
+        when(imageService.getImageVersion(image.getContentHash(), "Earth.gif", principal)).thenReturn(cachedImage);
+        when(imageService.getImageContent(cachedImage)).thenReturn(new ByteArrayResource(data));
+
+        // then
+        mockMvc.perform(get(END_POINT_PATH + "/v/{contentHash}/{filename}", image.getContentHash(), "Earth.gif")
+                .with(authentication(authenticationToken())))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable"))
+                .andExpect(header().doesNotExist(HttpHeaders.PRAGMA))
+                .andExpect(header().doesNotExist(HttpHeaders.EXPIRES));
+    }
+
+    @Test
+    void getImageWithMatchingETagShouldReturnNotModified() throws Exception {
+        // when
+        when(imageService.getImage("Earth.gif", principal)).thenReturn(cachedImage);
+
+        // then
+        mockMvc.perform(get(END_POINT_PATH + "/{filename}", "Earth.gif")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"" + image.getContentHash() + "\"")
+                .with(authentication(authenticationToken())))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"));
+    }
+
+    private UsernamePasswordAuthenticationToken authenticationToken() {
+        return new UsernamePasswordAuthenticationToken(principal, null, principal.authorities());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.spark_project.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ImageFormatTest {
+
+    @Test
+    void testDetectShouldRecognizeEveryFormat() {
+        // then
+        assertThat(ImageFormat.detect(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}))
+                .contains(ImageFormat.JPEG);
+        assertThat(ImageFormat.detect(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}))
+                .contains(ImageFormat.PNG);
+        assertThat(ImageFormat.detect(ascii("GIF87a"))).contains(ImageFormat.GIF);
+        assertThat(ImageFormat.detect(ascii("GIF89a"))).contains(ImageFormat.GIF);
+        assertThat(ImageFormat.detect(ascii("RIFF\0\0\0\0WEBP"))).contains(ImageFormat.WEBP);
+        assertThat(ImageFormat.detect(ascii("BM\0\0"))).contains(ImageFormat.BMP);
+    }
+
+    @Test
+    void testDetectShouldRejectOtherContent() {
+        // then
+        assertThat(ImageFormat.detect(ascii("%PDF-1.7"))).isEmpty();
+        assertThat(ImageFormat.detect(ascii("RIFF\0\0\0\0WAVE"))).isEmpty();
+        assertThat(ImageFormat.detect(new byte[0])).isEmpty();
+    }
+
+    @Test
+    void testDetectShouldReadOnlyTheHeader() throws IOException {
+        // given
+        ByteArrayInputStream content = new ByteArrayInputStream(ascii("GIF89a and a lot more bytes after the header"));
+
+        // when
+        var format = ImageFormat.detect(content);
+
+        // then
+        assertThat(format).contains(ImageFormat.GIF);
+        assertThat(content.available()).isEqualTo(44 - ImageFormat.HEADER_SIZE);
+    }
+
+    @Test
+    void testMimeTypeShouldMatchFormat() {
+        // then
+        assertThat(ImageFormat.WEBP.mimeType()).isEqualTo("image/webp");
+        assertThat(ImageFormat.JPEG.mimeType()).isEqualTo("image/jpeg");
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.spark_project.image;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ImageLinkBuilderTest {
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void testLinkShouldUseConfiguredBaseUrl() {
+        // given
+        ImageLinkBuilder imageLinkBuilder = new ImageLinkBuilder("https://images.example.com/");
+
+        // when
+        String link = imageLinkBuilder.link("Earth.gif");
+
+        // then
+        assertThat(link).isEqualTo("https://images.example.com/api/v1/image/Earth.gif");
+    }
+
+    @Test
+    void testLinkShouldResolveBaseFromCurrentRequest() {
+        // given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/image/");
+        request.setServerName("example.com");
+        request.setServerPort(8080);
+        request.setQueryString("order=ASC");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        ImageLinkBuilder imageLinkBuilder = new ImageLinkBuilder("");
+
+        // when
+        String link = imageLinkBuilder.link("My Earth.gif");
+
+        // then
+        assertThat(link).isEqualTo("http://example.com:8080/api/v1/image/My%20Earth.gif");
+    }
+
+    @Test
+    void testVersionedLinkShouldEmbedContentHash() {
+        // given
+        ImageLinkBuilder imageLinkBuilder = new ImageLinkBuilder("https://images.example.com");
+        String contentHash = "054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8";
+
+        // when
+        String link = imageLinkBuilder.versionedLink(contentHash, "Earth.gif");
+
+        // then
+        assertThat(link).isEqualTo("https://images.example.com/api/v1/image/v/" + contentHash + "/Earth.gif");
+        assertThat(imageLinkBuilder.versionedLink(null, "Earth.gif")).isNull();
+    }
+
+    @Test
+    void testBaseShouldBeResolvedOncePerRequest() {
+        // given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/image/");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        ImageLinkBuilder imageLinkBuilder = new ImageLinkBuilder("");
+
+        // when
+        String first = imageLinkBuilder.base();
+        request.setServerName("other.example.com");
+        String second = imageLinkBuilder.base();
+
+        // then
+        assertThat(second).isSameAs(first);
+    }
+}
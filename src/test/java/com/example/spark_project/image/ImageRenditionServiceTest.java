@@ -0,0 +1,258 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.ImageRenditionBusyException;
+import com.example.spark_project.exception.InvalidRenditionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ImageRenditionServiceTest {
+
+    @TempDir
+    private Path root;
+
+    private FileSystemImageStore imageStore;
+    private ImageRenditionService imageRenditionService;
+    private String key;
+
+    @AfterEach
+    void tearDown() {
+        imageRenditionService.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        imageStore = spy(new FileSystemImageStore(root.toString()));
+        imageRenditionService = new ImageRenditionService(imageStore, DataSize.ofMegabytes(1), 1, 10, 40_000_000);
+        key = imageStore.put(new ByteArrayInputStream(png(600, 300))).key();
+    }
+
+    @Test
+    void testRenderShouldFitImageIntoRequestedSize() throws IOException {
+        // given
+        ImageRendition rendition = ImageRendition.of(300, 300, null, false, null);
+
+        // when
+        byte[] data = imageRenditionService.render(key, rendition);
+
+        // then
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        assertThat(image.getWidth()).isEqualTo(300);
+        assertThat(image.getHeight()).isEqualTo(150);
+    }
+
+    @Test
+    void testRenderSameRenditionTwiceShouldReturnCachedData() {
+        // given
+        ImageRendition rendition = ImageRendition.of(100, null, 70, false, null);
+
+        // when
+        byte[] first = imageRenditionService.render(key, rendition);
+        byte[] second = imageRenditionService.render(key, ImageRendition.of(100, null, 70, false, null));
+
+        // then
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void testConcurrentRenderOfSameRenditionShouldResizeOnce() throws Exception {
+        // given
+        ImageStore blockingStore = mock(ImageStore.class);
+        ImageRenditionService slowService = new ImageRenditionService(blockingStore, DataSize.ofMegabytes(1), 2, 10, 40_000_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] content = png(10, 10);
+        when(blockingStore.get(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new ByteArrayResource(content);
+        });
+        ImageRendition rendition = ImageRendition.of(5, null, null, false, null);
+
+        // when
+        try {
+            CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> slowService.render(key, rendition));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(() -> slowService.render(key, rendition));
+            release.countDown();
+
+            // then
+            assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(first.get(5, TimeUnit.SECONDS));
+            verify(blockingStore, times(1)).get(key);
+        } finally {
+            release.countDown();
+            slowService.shutdown();
+        }
+    }
+
+    @Test
+    void testRenderWithLowerQualityShouldReturnLessBytes() {
+        // when
+        byte[] high = imageRenditionService.render(key, ImageRendition.of(null, null, 95, false, null));
+        byte[] low = imageRenditionService.render(key, ImageRendition.of(null, null, 10, false, null));
+
+        // then
+        assertThat(low.length).isLessThan(high.length);
+    }
+
+    @Test
+    void testRenderUnreadableContentShouldReturnNull() {
+        // given
+        String unreadable = imageStore.put(new ByteArrayInputStream(new byte[] {0x00, 0x01, 0x02, 0x03})).key();
+
+        // when
+        byte[] data = imageRenditionService.render(unreadable, ImageRendition.of(100, 100, null, false, null));
+
+        // then
+        assertThat(data).isNull();
+    }
+
+    @Test
+    void testRenderUnreadableContentShouldNotReadItAgain() {
+        // given
+        String unreadable = imageStore.put(new ByteArrayInputStream(new byte[] {0x00, 0x01, 0x02, 0x03})).key();
+
+        // when
+        imageRenditionService.render(unreadable, ImageRendition.of(100, 100, null, false, null));
+        byte[] data = imageRenditionService.render(unreadable, ImageRendition.of(200, 200, null, false, null));
+
+        // then
+        assertThat(data).isNull();
+        verify(imageStore, times(1)).get(unreadable);
+    }
+
+    @Test
+    void testRenderMalformedImageShouldReturnNullAndNotReadItAgain() throws IOException {
+        // given
+        ImageStore stubStore = mock(ImageStore.class);
+        ImageRenditionService stubService = new ImageRenditionService(stubStore, DataSize.ofMegabytes(1), 1, 10, 40_000_000);
+        String malformed = "malformed";
+        byte[] content = ImageVariantServiceTest.malformedBmp();
+        when(stubStore.get(malformed)).thenReturn(new ByteArrayResource(content));
+
+        // when
+        try {
+            byte[] first = stubService.render(malformed, ImageRendition.of(100, 100, null, false, null));
+            byte[] second = stubService.render(malformed, ImageRendition.of(200, 200, null, false, null));
+
+            // then
+            assertThat(first).isNull();
+            assertThat(second).isNull();
+            verify(stubStore, times(1)).get(malformed);
+        } finally {
+            stubService.shutdown();
+        }
+    }
+
+    @Test
+    void testRenderImageWithOversizedHeaderShouldReturnNull() throws IOException {
+        // given
+        byte[] oversized = ImageVariantServiceTest.withSize(png(10, 10), 20_000, 20_000);
+        String oversizedKey = imageStore.put(new ByteArrayInputStream(oversized)).key();
+
+        // when
+        byte[] data = imageRenditionService.render(oversizedKey, ImageRendition.of(100, 100, null, false, null));
+
+        // then
+        assertThat(data).isNull();
+    }
+
+    @Test
+    void testRenderWhenPoolIsFullShouldThrowImageRenditionBusyException() throws Exception {
+        // given
+        ImageStore blockingStore = mock(ImageStore.class);
+        ImageRenditionService busyService = new ImageRenditionService(blockingStore, DataSize.ofMegabytes(1), 1, 1, 40_000_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] content = png(10, 10);
+        when(blockingStore.get(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return new ByteArrayResource(content);
+        });
+
+        // when
+        new Thread(() -> busyService.render(key, ImageRendition.of(10, null, null, false, null))).start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        //parked on the future of its resize once that is in the queue
+        Thread queued = new Thread(() -> busyService.render(key, ImageRendition.of(20, null, null, false, null)));
+        queued.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queued.getState() != Thread.State.WAITING) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+
+        // then
+        try {
+            assertThatThrownBy(() -> busyService.render(key, ImageRendition.of(30, null, null, false, null)))
+                    .isInstanceOf(ImageRenditionBusyException.class);
+        } finally {
+            release.countDown();
+            busyService.shutdown();
+        }
+    }
+
+    @Test
+    void testRenditionWithSaveDataShouldLowerQuality() {
+        // when
+        ImageRendition rendition = ImageRendition.of(100, 100, 90, true, "image/avif,image/webp,*/*");
+
+        // then
+        assertThat(rendition.quality()).isEqualTo(ImageRendition.SAVE_DATA_QUALITY);
+        assertThat(rendition.mimeType()).isEqualTo("image/jpeg");
+    }
+
+    @Test
+    void testRenditionForClientWithoutJpegShouldUsePng() {
+        // when
+        ImageRendition rendition = ImageRendition.of(100, 100, null, false, "image/png");
+
+        // then
+        assertThat(rendition.format()).isEqualTo("png");
+        assertThat(rendition.mimeType()).isEqualTo("image/png");
+    }
+
+    @Test
+    void testRenditionShouldRejectInvalidSize() {
+        // then
+        assertThatThrownBy(() -> ImageRendition.of(0, 100, null, false, null))
+                .isInstanceOf(InvalidRenditionException.class)
+                .hasMessageContaining("w must be between 1 and 4096");
+        assertThatThrownBy(() -> ImageRendition.of(100, 100, 101, false, null))
+                .isInstanceOf(InvalidRenditionException.class)
+                .hasMessageContaining("q must be between 1 and 100");
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
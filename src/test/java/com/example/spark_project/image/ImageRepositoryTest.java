@@ -1,5 +1,6 @@
 package com.example.spark_project.image;
 
+import com.example.spark_project.security.AuthenticatedUser;
 import com.example.spark_project.user.Role;
 import com.example.spark_project.user.User;
 import com.example.spark_project.user.UserRepository;
@@ -10,26 +11,32 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.jdbc.EmbeddedDatabaseConnection;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect")
 @AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
 class ImageRepositoryTest {
 
     @Autowired
     private ImageRepository imageRepository;
 
+    @Autowired
+    private ImageDataRepository imageDataRepository;
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private TestEntityManager entityManager;
+
     private Image image;
     private User user;
 
@@ -50,7 +57,7 @@ class ImageRepositoryTest {
         image = Image.builder()
                 .filename("Earth.gif")
                 .mimeType("image/gif")
-                .data(new byte[] {0x00, 0x01, 0x02, 0x03})
+                .contentHash("054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8")
                 .size(1024L)
                 .createdAt(LocalDateTime.now().withNano(0))
                 .user(user)
@@ -60,7 +67,7 @@ class ImageRepositoryTest {
         Image image2 = Image.builder()
                 .filename("Earth1.gif")
                 .mimeType("image/gif")
-                .data(new byte[] {0x00, 0x01, 0x02, 0x03})
+                .contentHash("054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8")
                 .size(1024L)
                 .createdAt(LocalDateTime.now().withNano(0))
                 .user(user)
@@ -73,95 +80,84 @@ class ImageRepositoryTest {
     }
 
     @Test
-    void testExistsByFilenameAndUserShouldReturnTrue() {
+    void testFindExistingFilenamesShouldReturnOnlyExistingOnes() {
         // when
-        boolean exists = imageRepository.existsByFilenameAndUser(image.getFilename(), user);
+        List<String> existing = imageRepository.findExistingFilenames(user.getEmail(), List.of("Earth.gif", "Mars.gif"));
 
         // then
-        assertThat(exists).isTrue();
+        assertThat(existing).isEqualTo(List.of("Earth.gif"));
     }
 
     @Test
-    void testExistsByFilenameAndUserShouldReturnFalse() {
-        // given
-        String imageName = "toFail";
-
+    void testExistsByFilenameAndUserEmailShouldReturnTrue() {
         // when
-        boolean exists = imageRepository.existsByFilenameAndUser(imageName, user);
+        boolean exists = imageRepository.existsByFilenameAndUserEmail(image.getFilename(), user.getEmail());
 
         // then
-        assertThat(exists).isFalse();
-    }
-
-    @Test
-    void testFindByFilenameAndUserShouldReturnImage() {
-        // when
-        Image expected = imageRepository.findByFilenameAndUser(image.getFilename(), user).get();
-
-        // then
-        assertThat(expected).isNotNull();
-    }
-
-    @Test
-    void deleteByFilenameAndUser() {
-        // given
-        imageRepository.deleteByFilenameAndUser(image.getFilename(), user);
-
-        // when
-        Optional<Image> deletedImage = imageRepository.findById(image.getId());
-
-        // then
-        assertThat(deletedImage).isEmpty();
+        assertThat(exists).isTrue();
     }
 
     @Test
-    void testFindByCreatedAtAndUserShouldReturnImageList() {
+    void testExistsByFilenameAndUserEmailShouldReturnFalse() {
         // given
-        Pageable pageable = PageRequest.of(0, 2);
+        String imageName = "toFail";
 
         // when
-        List<Image> imageList = imageRepository.findByCreatedAtAndUser(image.getCreatedAt(), user, pageable);
+        boolean exists = imageRepository.existsByFilenameAndUserEmail(imageName, user.getEmail());
 
         // then
-        assertThat(imageList).isNotNull();
-        assertThat(imageList.size()).isEqualTo(2);
+        assertThat(exists).isFalse();
     }
 
     @Test
-    void testExistsByCreatedAtAndUserShouldReturnTrue() {
+    void testFindByFilenameAndUserEmailShouldReturnImage() {
         // when
-        boolean exists = imageRepository.existsByCreatedAtAndUser(image.getCreatedAt(), user);
+        Optional<Image> expected = imageRepository.findByFilenameAndUserEmail(image.getFilename(), user.getEmail());
 
         // then
-        assertThat(exists).isTrue();
+        assertThat(expected).isPresent();
     }
 
     @Test
-    void testExistsByCreatedAtAndUserShouldReturnFalse() {
+    void testSaveWithUserReferenceShouldLinkImageToUser() {
         // given
-        LocalDateTime dateTime = LocalDateTime.now().plusSeconds(1);
+        Image image3 = Image.builder()
+                .filename("Mars.gif")
+                .mimeType("image/gif")
+                .contentHash("054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8")
+                .size(1024L)
+                .createdAt(LocalDateTime.now().withNano(0))
+                .user(AuthenticatedUser.from(user).reference())
+                .build();
 
         // when
-        boolean exists = imageRepository.existsByCreatedAtAndUser(dateTime, user);
+        imageRepository.save(image3);
+        entityManager.flush();
+        entityManager.clear();
 
         // then
-        assertThat(exists).isFalse();
+        Image expected = imageRepository.findByFilenameAndUserEmail("Mars.gif", user.getEmail()).get();
+        assertThat(expected.getUser().getId()).isEqualTo(user.getId());
     }
 
     @Test
-    void testFindByUserOrderBySizeAscShouldReturnImageList() {
+    void testFindPageByCreatedAtAndUserShouldReturnImageList() {
         // when
-        List<Image> imageList = imageRepository.findByUserOrderBySizeAsc(user);
+        List<ImageSummary> imageList = imageRepository.findPage(user.getEmail(), image.getCreatedAt(), ImageSort.CREATED_AT, null, 2);
 
         // then
         assertThat(imageList).isNotNull();
         assertThat(imageList.size()).isEqualTo(2);
+        assertThat(imageList.get(0).getFilename()).isEqualTo(image.getFilename());
+        assertThat(imageList.get(0).getSize()).isEqualTo(image.getSize());
+        assertThat(imageList.get(0).getCreatedAt()).isEqualTo(image.getCreatedAt());
+        assertThat(imageList.get(0).getContentHash()).isEqualTo(image.getContentHash());
     }
 
     @Test
-    void testFindByUserOrderBySizeDescShouldReturnImageList() {
+    void testFindPageBySizeAscShouldReturnImageList() {
         // when
-        List<Image> imageList = imageRepository.findByUserOrderBySizeDesc(user);
+        List<ImageSummary> imageList = imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_ASC, null, 10);
 
         // then
         assertThat(imageList).isNotNull();
@@ -169,60 +165,74 @@ class ImageRepositoryTest {
     }
 
     @Test
-    void testExistsByUserShouldReturnTrue() {
+    void testStreamAllShouldReturnEveryImage() {
         // when
-        boolean exists = imageRepository.existsByUser(user);
+        List<ImageSummary> imageList;
+        try (Stream<ImageSummary> images = imageRepository.streamAll(user.getEmail(), ImageSort.SIZE_DESC)) {
+            imageList = images.toList();
+        }
 
         // then
-        assertThat(exists).isTrue();
+        assertThat(imageList.size()).isEqualTo(2);
+        assertThat(imageList.get(0).getFilename()).isEqualTo("Earth1.gif");
     }
 
     @Test
-    void testExistsByUserShouldReturnFalse() {
+    void testFindPageShouldContinueAfterCursor() {
         // given
-        String resetToken2 = UUID.randomUUID().toString().replaceAll("_", "").substring(0, 32);
-        User user2 = User.builder()
-                .firstName("John2")
-                .lastName("Evans2")
-                .email("john2_evans2@gmail.com")
-                .password("Test.123")
-                .repeatPassword("Test.123")
-                .role(Role.USER)
-                .resetPasswordToken(resetToken2)
-                .build();
+        List<ImageSummary> firstPage = imageRepository.findPage(user.getEmail(), null, ImageSort.CREATED_AT, null, 1);
+        ImageCursor cursor = ImageCursor.after(firstPage.get(0), ImageSort.CREATED_AT);
 
         // when
-        boolean exists = imageRepository.existsByUser(user2);
+        List<ImageSummary> secondPage = imageRepository.findPage(user.getEmail(), null, ImageSort.CREATED_AT, cursor, 1);
+        List<ImageSummary> thirdPage = imageRepository.findPage(user.getEmail(), null, ImageSort.CREATED_AT,
+                ImageCursor.after(secondPage.get(0), ImageSort.CREATED_AT), 1);
 
         // then
-        assertThat(exists).isFalse();
+        assertThat(firstPage.get(0).getFilename()).isEqualTo("Earth.gif");
+        assertThat(secondPage.get(0).getFilename()).isEqualTo("Earth1.gif");
+        assertThat(thirdPage.size()).isEqualTo(0);
     }
 
     @Test
-    void testFindByCreatedAtAndUserOrderBySizeAscShouldReturnImageList() {
+    void testFindPageBySizeDescShouldReturnBiggestFirst() {
         // given
-        LocalDateTime createdAt = image.getCreatedAt();
-        Pageable pageable = PageRequest.of(0, 2);
+        Image bigImage = Image.builder()
+                .filename("Earth2.gif")
+                .mimeType("image/gif")
+                .contentHash("054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8")
+                .size(2048L)
+                .createdAt(LocalDateTime.now().withNano(0))
+                .user(user)
+                .build();
+        imageRepository.save(bigImage);
 
         // when
-        List<Image> imageList = imageRepository.findByCreatedAtAndUserOrderBySizeAsc(createdAt, user, pageable);
+        List<ImageSummary> firstPage = imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_DESC, null, 2);
+        List<ImageSummary> secondPage = imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_DESC,
+                ImageCursor.after(firstPage.get(1), ImageSort.SIZE_DESC), 2);
 
         // then
-        assertThat(imageList).isNotNull();
-        assertThat(imageList.size()).isEqualTo(2);
+        assertThat(firstPage.get(0).getFilename()).isEqualTo("Earth2.gif");
+        assertThat(firstPage.get(1).getFilename()).isEqualTo("Earth1.gif");
+        assertThat(secondPage.size()).isEqualTo(1);
+        assertThat(secondPage.get(0).getFilename()).isEqualTo("Earth.gif");
     }
 
     @Test
-    void testFindByCreatedAtAndUserOrderBySizeDescShouldReturnImageList() {
+    void testClearDataShouldRemoveLegacyBytes() {
         // given
-        LocalDateTime createdAt = image.getCreatedAt();
-        Pageable pageable = PageRequest.of(0, 2);
+        entityManager.flush();
+        imageDataRepository.save(new ImageData(image.getId(), new byte[] {0x00, 0x01, 0x02, 0x03}));
+        entityManager.flush();
+        entityManager.clear();
 
         // when
-        List<Image> imageList = imageRepository.findByCreatedAtAndUserOrderBySizeDesc(createdAt, user, pageable);
+        imageDataRepository.clearData(image.getId());
+        entityManager.clear();
 
         // then
-        assertThat(imageList).isNotNull();
-        assertThat(imageList.size()).isEqualTo(2);
+        assertThat(imageDataRepository.findById(image.getId()).get().getData()).isNull();
+        assertThat(imageRepository.findById(image.getId())).isPresent();
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.example.spark_project.image;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.*;
+
+class ImageSegmentCacheTest {
+
+    // header (64) + 3 records of 44 + 100 bytes
+    private static final DataSize SIZE = DataSize.ofBytes(64 + 3 * 144);
+
+    @TempDir
+    private Path location;
+
+    @Test
+    void testGetShouldReturnPutContent() {
+        // given
+        ImageSegmentCache cache = new ImageSegmentCache(location.toString(), SIZE);
+        byte[] data = data(1);
+
+        // when
+        cache.put(hash(1), data);
+
+        // then
+        assertThat(cache.get(hash(1))).isEqualTo(data);
+        assertThat(cache.get(hash(2))).isNull();
+    }
+
+    @Test
+    void testPutShouldEvictOldestWhenFull() {
+        // given
+        ImageSegmentCache cache = new ImageSegmentCache(location.toString(), SIZE);
+
+        // when
+        for (int i = 1; i <= 4; i++) {
+            cache.put(hash(i), data(i));
+        }
+
+        // then
+        assertThat(cache.get(hash(1))).isNull();
+        assertThat(cache.get(hash(2))).isEqualTo(data(2));
+        assertThat(cache.get(hash(3))).isEqualTo(data(3));
+        assertThat(cache.get(hash(4))).isEqualTo(data(4));
+    }
+
+    @Test
+    void testReopenShouldRestoreEntries() {
+        // given
+        ImageSegmentCache cache = new ImageSegmentCache(location.toString(), SIZE);
+        for (int i = 1; i <= 5; i++) {
+            cache.put(hash(i), data(i));
+        }
+        cache.close();
+
+        // when
+        ImageSegmentCache reopened = new ImageSegmentCache(location.toString(), SIZE);
+
+        // then
+        assertThat(reopened.get(hash(2))).isNull();
+        assertThat(reopened.get(hash(3))).isEqualTo(data(3));
+        assertThat(reopened.get(hash(4))).isEqualTo(data(4));
+        assertThat(reopened.get(hash(5))).isEqualTo(data(5));
+    }
+
+    @Test
+    void testReopenWithDifferentSizeShouldStartEmpty() {
+        // given
+        ImageSegmentCache cache = new ImageSegmentCache(location.toString(), SIZE);
+        cache.put(hash(1), data(1));
+        cache.close();
+
+        // when
+        ImageSegmentCache reopened = new ImageSegmentCache(location.toString(), DataSize.ofKilobytes(1));
+
+        // then
+        assertThat(reopened.get(hash(1))).isNull();
+    }
+
+    @Test
+    void testPutTooBigContentShouldBeIgnored() {
+        // given
+        ImageSegmentCache cache = new ImageSegmentCache(location.toString(), SIZE);
+
+        // when
+        cache.put(hash(1), new byte[1024]);
+
+        // then
+        assertThat(cache.get(hash(1))).isNull();
+    }
+
+    private static String hash(int i) {
+        return String.format("%064x", i);
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[100];
+        data[0] = (byte) i;
+        return data;
+    }
+}
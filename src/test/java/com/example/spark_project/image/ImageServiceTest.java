@@ -3,29 +3,39 @@ package com.example.spark_project.image;
 import com.example.spark_project.exception.FileNotAnImageException;
 import com.example.spark_project.exception.ImageAlreadyExistsException;
 import com.example.spark_project.exception.ImageNotFoundException;
+import com.example.spark_project.exception.InvalidCursorException;
 import com.example.spark_project.exception.InvalidSortOrderException;
-import com.example.spark_project.security.JwtService;
+import com.example.spark_project.security.AuthenticatedUser;
 import com.example.spark_project.user.Role;
 import com.example.spark_project.user.User;
-import com.example.spark_project.user.UserRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.unit.DataSize;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -34,22 +44,46 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class ImageServiceTest {
 
-    private static final String TOKEN = "bearer token";
-
     @Mock
     private ImageRepository imageRepository;
 
     @Mock
-    private UserRepository userRepository;
+    private ImageStore imageStore;
+
+    @Mock
+    private ImageDataRepository imageDataRepository;
+
+    @Mock
+    private ImageBlobRepository imageBlobRepository;
+
+    @Spy
+    private ImageLinkBuilder imageLinkBuilder = new ImageLinkBuilder("");
+
+    @Mock
+    private ImageSegmentCache imageSegmentCache;
 
     @Mock
-    private JwtService jwtService;
+    private ImageVariantService imageVariantService;
+
+    @Mock
+    private ImageRenditionService imageRenditionService;
+
+    @Spy
+    private ImageCache imageCache = new ImageCache(DataSize.ofMegabytes(1), DataSize.ofBytes(16));
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
 
     @InjectMocks
     private ImageService imageService;
 
+    private static final String CONTENT_HASH = "054edec1d0211f624fed0cbca9d4f9400b0e491c43742af2c5b0abebf0c990d8";
+
+    private byte[] data;
     private Image image;
+    private ImageSummary summary;
     private User user;
+    private AuthenticatedUser principal;
     private MockMultipartFile file;
     private MockMultipartFile newFile;
 
@@ -65,31 +99,35 @@ class ImageServiceTest {
                 .role(Role.USER)
                 .resetPasswordToken(resetToken)
                 .build();
+        principal = AuthenticatedUser.from(user);
 
+        data = new byte[] {'G', 'I', 'F', '8', '9', 'a', 0x01, 0x00};
         image = Image.builder()
                 .filename("Earth.gif")
                 .mimeType("image/gif")
-                .data(new byte[] {0x00, 0x01, 0x02, 0x03})
+                .contentHash(CONTENT_HASH)
                 .size(4L)
                 .createdAt(LocalDateTime.now().withSecond(0).withNano(0))
                 .user(user)
                 .build();
 
+        summary = new ImageSummary(1L, image.getFilename(), image.getSize(), image.getCreatedAt(), CONTENT_HASH);
+
         file = new MockMultipartFile(
                 "file",
                 "Earth.gif",
                 "image/gif",
-                image.getData()
+                data
         );
 
         newFile = new MockMultipartFile(
                 "file",
                 "Earth2.gif",
                 "image/gif",
-                image.getData()
+                data
         );
 
-        // These two lines are necessary for the createImageLink method
+        // These two lines are necessary for the ImageLinkBuilder
         // Without them, we get the exception, specifically:
         // java.lang.IllegalStateException: No current ServletRequestAttributes
         MockHttpServletRequest request = new MockHttpServletRequest();
@@ -102,20 +140,171 @@ class ImageServiceTest {
         String filename = "Earth.gif";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.findByFilenameAndUser(filename, user)).thenReturn(Optional.of(image));
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
 
-        Image expected = imageService.getImage(filename, TOKEN);
+        CachedImage cachedImage = imageService.getImage(filename, principal);
+        Image expected = cachedImage.image();
 
         // then
         assertThat(expected).isNotNull();
+        assertThat(cachedImage.owner()).isEqualTo(user.getEmail());
+        assertThat(cachedImage.data()).isNull();
         assertThat(expected.getFilename()).isEqualTo(image.getFilename());
         assertThat(expected.getMimeType()).isEqualTo(image.getMimeType());
-        assertThat(expected.getData()).isEqualTo(image.getData());
+        assertThat(expected.getContentHash()).isEqualTo(CONTENT_HASH);
         assertThat(expected.getSize()).isEqualTo(image.getSize());
         assertThat(expected.getCreatedAt()).isEqualTo(image.getCreatedAt());
         assertThat(expected.getUser()).isEqualTo(image.getUser());
+        verify(imageStore, never()).put(any(InputStream.class));
+        verify(imageStore, never()).get(any());
+    }
+
+    @Test
+    void testGetImageVersionShouldReturnImage() {
+        // given
+        String filename = "Earth.gif";
+
+        // when
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
+
+        CachedImage expected = imageService.getImageVersion(CONTENT_HASH, filename, principal);
+
+        // then
+        assertThat(expected.image()).isEqualTo(image);
+    }
+
+    @Test
+    void testGetImageVersionOfChangedImageShouldThrowImageNotFoundException() {
+        // given
+        String filename = "Earth.gif";
+        String oldContentHash = "0".repeat(64);
+
+        // when
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
+
+        // then
+        assertThatThrownBy(() -> imageService.getImageVersion(oldContentHash, filename, principal))
+                .isInstanceOf(ImageNotFoundException.class)
+                .hasMessageContaining("Image " + filename + " does not exist in this version");
+    }
+
+    @Test
+    void testGetImageShouldMoveLegacyDataToImageStore() {
+        // given
+        String filename = "Earth.gif";
+        image.setId(1L);
+        image.setContentHash(null);
+
+        // when
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
+        when(imageDataRepository.findById(1L)).thenReturn(Optional.of(new ImageData(1L, data)));
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+
+        Image expected = imageService.getImage(filename, principal).image();
+
+        // then
+        assertThat(expected.getContentHash()).isEqualTo(CONTENT_HASH);
+        verify(imageRepository, times(1)).save(image);
+        verify(imageDataRepository, times(1)).clearData(1L);
+    }
+
+    @Test
+    void testGetImageShouldReadFromCacheOnSecondCall() throws IOException {
+        // given
+        String filename = "Earth.gif";
+
+        // when
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
+        when(imageStore.get(CONTENT_HASH)).thenReturn(new ByteArrayResource(data));
+
+        imageService.getImageContent(imageService.getImage(filename, principal));
+        CachedImage expected = imageService.getImage(filename, principal);
+        Resource content = imageService.getImageContent(expected);
+
+        // then
+        assertThat(expected.data()).isEqualTo(data);
+        assertThat(content.getInputStream().readAllBytes()).isEqualTo(data);
+        verify(imageRepository, times(1)).findByFilenameAndUserEmail(filename, user.getEmail());
+        verify(imageStore, times(1)).get(CONTENT_HASH);
+    }
+
+    @Test
+    void testGetImageContentShouldReadFromSegmentCache() throws IOException {
+        // when
+        when(imageSegmentCache.get(CONTENT_HASH)).thenReturn(data);
+
+        Resource expected = imageService.getImageContent(new CachedImage(user.getEmail(), image, null));
+
+        // then
+        assertThat(expected.getInputStream().readAllBytes()).isEqualTo(data);
+        verify(imageStore, never()).get(any());
+        verify(imageSegmentCache, never()).put(any(), any());
+    }
+
+    @Test
+    void testGetImageContentShouldPutContentIntoSegmentCache() {
+        // when
+        when(imageStore.get(CONTENT_HASH)).thenReturn(new ByteArrayResource(data));
+
+        imageService.getImageContent(new CachedImage(user.getEmail(), image, null));
+
+        // then
+        verify(imageSegmentCache, times(1)).put(CONTENT_HASH, data);
+    }
+
+    @Test
+    void testGetImageContentShouldNotReadBigImages() {
+        // given
+        image.setSize(1024L);
+        Resource resource = new ByteArrayResource(new byte[1024]);
+
+        // when
+        when(imageStore.get(CONTENT_HASH)).thenReturn(resource);
+
+        Resource expected = imageService.getImageContent(new CachedImage(user.getEmail(), image, null));
+
+        // then
+        assertThat(expected).isSameAs(resource);
+        verify(imageSegmentCache, never()).get(any());
+    }
+
+    @Test
+    void testGetImageVariantShouldReturnGeneratedVariant() {
+        // given
+        Resource thumbnail = new ByteArrayResource(data);
+
+        // when
+        when(imageVariantService.find(CONTENT_HASH, ImageVariant.THUMBNAIL)).thenReturn(Optional.of(thumbnail));
+
+        Optional<Resource> expected = imageService.getImageVariant(
+                new CachedImage(user.getEmail(), image, null), ImageVariant.THUMBNAIL);
+
+        // then
+        assertThat(expected).contains(thumbnail);
+    }
+
+    @Test
+    void testGetImageRenditionShouldReturnRenderedData() {
+        // given
+        ImageRendition rendition = ImageRendition.of(100, 100, null, false, null);
+
+        // when
+        when(imageRenditionService.render(CONTENT_HASH, rendition)).thenReturn(data);
+
+        byte[] expected = imageService.getImageRendition(new CachedImage(user.getEmail(), image, null), rendition);
+
+        // then
+        assertThat(expected).isEqualTo(data);
+    }
+
+    @Test
+    void testGetImageContentShouldReturnCachedData() throws IOException {
+        // when
+        Resource expected = imageService.getImageContent(new CachedImage(user.getEmail(), image, data));
+
+        // then
+        assertThat(expected.getInputStream().readAllBytes()).isEqualTo(data);
+        verify(imageStore, never()).get(any());
     }
 
     @Test
@@ -124,12 +313,10 @@ class ImageServiceTest {
         String filename = "Earth.gif";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.findByFilenameAndUser(filename, user)).thenReturn(Optional.empty());
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.empty());
 
         // then
-        assertThatThrownBy(() -> imageService.getImage(filename, TOKEN))
+        assertThatThrownBy(() -> imageService.getImage(filename, principal))
                 .isInstanceOf(ImageNotFoundException.class)
                 .hasMessageContaining("Image " + filename + " does not exist");
     }
@@ -140,16 +327,99 @@ class ImageServiceTest {
         String link = "http://localhost/api/v1/image/" + file.getOriginalFilename();
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(file.getOriginalFilename(), user)).thenReturn(false);
+        when(imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
         when(imageRepository.save(any(Image.class))).thenReturn(image);
 
-        ImageResponse expected = imageService.uploadImage(file, TOKEN);
+        ImageResponse expected = imageService.uploadImage(file, principal);
 
         // then
         assertThat(expected).isNotNull();
         assertThat(expected.getImageLink()).isEqualTo(link);
+        assertThat(expected.getSize()).isEqualTo(data.length);
+        verify(imageVariantService, times(1)).generate(CONTENT_HASH);
+    }
+
+    @Test
+    void testUploadImageShouldCreateBlobForNewContent() throws IOException {
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(0);
+        when(imageStore.exists(CONTENT_HASH)).thenReturn(true);
+
+        imageService.uploadImage(file, principal);
+
+        // then
+        verify(imageBlobRepository, times(1)).save(new ImageBlob(CONTENT_HASH, (long) data.length, file.getContentType(), 1L));
+        verify(imageStore, times(1)).put(any(InputStream.class));
+    }
+
+    @Test
+    void testUploadImageShouldOnlyReferenceExistingBlob() throws IOException {
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(1);
+
+        imageService.uploadImage(file, principal);
+
+        // then
+        verify(imageBlobRepository, never()).save(any());
+        verify(imageStore, never()).exists(any());
+    }
+
+    @Test
+    void testUploadImageShouldStoreContentAgainIfBlobWasDeletedMeanwhile() throws IOException {
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(0);
+        when(imageStore.exists(CONTENT_HASH)).thenReturn(false);
+
+        imageService.uploadImage(file, principal);
+
+        // then
+        verify(imageStore, times(2)).put(any(InputStream.class));
+    }
+
+    @Test
+    void testSaveUploadsShouldSaveAllImagesAtOnce() throws IOException {
+        // given
+        List<StoredUpload> uploads = List.of(
+                new StoredUpload(file, ImageFormat.GIF, new StoredContent(CONTENT_HASH, data.length)),
+                new StoredUpload(newFile, ImageFormat.GIF, new StoredContent(CONTENT_HASH, data.length))
+        );
+
+        // when
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(1);
+
+        List<ImageResponse> expected = imageService.saveUploads(principal, uploads);
+
+        // then
+        assertThat(expected).extracting(ImageResponse::getFilename).containsExactly("Earth.gif", "Earth2.gif");
+        verify(imageRepository, times(1)).saveAll(argThat(images -> ((List<Image>) images).size() == 2));
+        verify(imageRepository, never()).save(any(Image.class));
+        verify(imageBlobRepository, times(2)).incrementRefCount(CONTENT_HASH);
+    }
+
+    @Test
+    void testUploadImageFromFileShouldStoreFile() throws IOException {
+        // given
+        Path content = Path.of("upload");
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail("Earth2.gif", user.getEmail())).thenReturn(false);
+        when(imageStore.put(content)).thenReturn(new StoredContent(CONTENT_HASH, data.length));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(1);
+
+        ImageResponse expected = imageService.uploadImage("Earth2.gif", ImageFormat.GIF, content, principal);
+
+        // then
+        assertThat(expected.getFilename()).isEqualTo("Earth2.gif");
+        assertThat(expected.getSize()).isEqualTo(data.length);
+        verify(imageRepository, times(1)).save(any(Image.class));
+        verify(imageVariantService, times(1)).generate(CONTENT_HASH);
     }
 
     @Test
@@ -159,28 +429,132 @@ class ImageServiceTest {
                 "Earth",
                 "Earth.fail",
                 "fail",
-                image.getData()
+                new byte[] {0x00, 0x01, 0x02, 0x03}
         );
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
 
         // then
-        assertThatThrownBy(() -> imageService.uploadImage(fileToFail, TOKEN))
+        assertThatThrownBy(() -> imageService.uploadImage(fileToFail, principal))
                 .isInstanceOf(FileNotAnImageException.class)
                 .hasMessageContaining("File you are trying to upload is not an image");
     }
 
+    @Test
+    void testUploadImageShouldUseSniffedMimeType() throws IOException {
+        // given
+        MockMultipartFile png = new MockMultipartFile(
+                "file",
+                "Earth.gif",
+                "image/gif",
+                new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0x00}
+        );
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(png.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, png.getSize()));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(1);
+
+        imageService.uploadImage(png, principal);
+
+        // then
+        verify(imageRepository, times(1)).save(argThat(saved -> saved.getMimeType().equals("image/png")));
+    }
+
+    @Test
+    void testUploadImageShouldRejectNonImageBeforeStoringIt() {
+        // given
+        MockMultipartFile text = new MockMultipartFile(
+                "file",
+                "Earth.gif",
+                "image/gif",
+                "not an image at all".getBytes()
+        );
+
+        // when
+
+        // then
+        assertThatThrownBy(() -> imageService.uploadImage(text, principal))
+                .isInstanceOf(FileNotAnImageException.class);
+        verifyNoInteractions(imageStore);
+    }
+
     @Test
     void testUploadImageShouldThrowImageAlreadyExistsException() {
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(file.getOriginalFilename(), user)).thenReturn(true);
+        when(imageRepository.existsByFilenameAndUserEmail(file.getOriginalFilename(), user.getEmail())).thenReturn(true);
+
+        // then
+        assertThatThrownBy(() -> imageService.uploadImage(file, principal))
+                .isInstanceOf(ImageAlreadyExistsException.class)
+                .hasMessageContaining("Image with that filename already exists");
+    }
+
+    @Test
+    void testPreflightImageShouldCreateImageFromKnownContent() {
+        // given
+        ImagePreflightRequest request = new ImagePreflightRequest("Earth2.gif", 4L, CONTENT_HASH.toUpperCase());
+        ImageBlob blob = new ImageBlob(CONTENT_HASH, 4L, "image/gif", 1L);
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.getEmail())).thenReturn(false);
+        when(imageBlobRepository.findById(CONTENT_HASH)).thenReturn(Optional.of(blob));
+        when(imageBlobRepository.incrementRefCount(CONTENT_HASH)).thenReturn(1);
+
+        ImagePreflightResponse expected = imageService.preflightImage(request, principal);
+
+        // then
+        assertThat(expected.isUploadRequired()).isFalse();
+        assertThat(expected.getImage().getFilename()).isEqualTo(request.getFilename());
+        verify(imageRepository, times(1)).save(argThat(saved ->
+                saved.getContentHash().equals(CONTENT_HASH) && saved.getMimeType().equals("image/gif")));
+        verify(imageStore, never()).put(any(InputStream.class));
+    }
+
+    @Test
+    void testPreflightImageOfUnknownContentShouldRequireUpload() {
+        // given
+        ImagePreflightRequest request = new ImagePreflightRequest("Earth2.gif", 4L, CONTENT_HASH);
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.getEmail())).thenReturn(false);
+        when(imageBlobRepository.findById(CONTENT_HASH)).thenReturn(Optional.empty());
+
+        ImagePreflightResponse expected = imageService.preflightImage(request, principal);
+
+        // then
+        assertThat(expected.isUploadRequired()).isTrue();
+        assertThat(expected.getImage()).isNull();
+        verify(imageRepository, never()).save(any());
+    }
+
+    @Test
+    void testPreflightImageWithDifferentSizeShouldRequireUpload() {
+        // given
+        ImagePreflightRequest request = new ImagePreflightRequest("Earth2.gif", 5L, CONTENT_HASH);
+        ImageBlob blob = new ImageBlob(CONTENT_HASH, 4L, "image/gif", 1L);
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.getEmail())).thenReturn(false);
+        when(imageBlobRepository.findById(CONTENT_HASH)).thenReturn(Optional.of(blob));
+
+        ImagePreflightResponse expected = imageService.preflightImage(request, principal);
+
+        // then
+        assertThat(expected.isUploadRequired()).isTrue();
+        verify(imageBlobRepository, never()).incrementRefCount(any());
+    }
+
+    @Test
+    void testPreflightImageShouldThrowImageAlreadyExistsException() {
+        // given
+        ImagePreflightRequest request = new ImagePreflightRequest("Earth.gif", 4L, CONTENT_HASH);
+
+        // when
+        when(imageRepository.existsByFilenameAndUserEmail(request.getFilename(), user.getEmail())).thenReturn(true);
 
         // then
-        assertThatThrownBy(() -> imageService.uploadImage(file, TOKEN))
+        assertThatThrownBy(() -> imageService.preflightImage(request, principal))
                 .isInstanceOf(ImageAlreadyExistsException.class)
                 .hasMessageContaining("Image with that filename already exists");
     }
@@ -191,17 +565,18 @@ class ImageServiceTest {
         String filename = "Earth.gif";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(filename, user)).thenReturn(true);
-        when(imageRepository.existsByFilenameAndUser(newFile.getOriginalFilename(), user)).thenReturn(false);
-        when(imageRepository.findByFilenameAndUser(filename, user)).thenReturn(Optional.of(image));
+        when(imageRepository.existsByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(true);
+        when(imageRepository.existsByFilenameAndUserEmail(newFile.getOriginalFilename(), user.getEmail())).thenReturn(false);
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.of(image));
+        when(imageStore.put(any(InputStream.class))).thenReturn(new StoredContent(CONTENT_HASH, data.length));
         when(imageRepository.save(any(Image.class))).thenReturn(image);
 
-        ImageResponse expected = imageService.changeImage(filename, newFile, TOKEN);
+        ImageResponse expected = imageService.changeImage(filename, newFile, principal);
 
         // then
         assertThat(expected).isNotNull();
+        verify(imageCache, times(1)).invalidate(user.getEmail(), filename);
+        verify(imageVariantService, times(1)).generate(CONTENT_HASH);
     }
 
     @Test
@@ -210,12 +585,10 @@ class ImageServiceTest {
         String filename = "Earth.gif";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(filename, user)).thenReturn(false);
+        when(imageRepository.existsByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(false);
 
         // then
-        assertThatThrownBy(() -> imageService.changeImage(filename, newFile, TOKEN))
+        assertThatThrownBy(() -> imageService.changeImage(filename, newFile, principal))
                 .isInstanceOf(ImageNotFoundException.class)
                 .hasMessageContaining("Image " + filename + " does not exist");
     }
@@ -227,16 +600,14 @@ class ImageServiceTest {
                 "Earth",
                 "Earth.fail",
                 "fail",
-                image.getData()
+                new byte[] {0x00, 0x01, 0x02, 0x03}
         );
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(fileToFail.getOriginalFilename(), user)).thenReturn(true);
+        when(imageRepository.existsByFilenameAndUserEmail(fileToFail.getOriginalFilename(), user.getEmail())).thenReturn(true);
 
         // then
-        assertThatThrownBy(() -> imageService.changeImage(fileToFail.getOriginalFilename(),fileToFail, TOKEN))
+        assertThatThrownBy(() -> imageService.changeImage(fileToFail.getOriginalFilename(),fileToFail, principal))
                 .isInstanceOf(FileNotAnImageException.class)
                 .hasMessageContaining("File you are trying to upload is not an image");
     }
@@ -247,13 +618,11 @@ class ImageServiceTest {
         String filename = "Earth.gif";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(filename, user)).thenReturn(true);
-        when(imageRepository.existsByFilenameAndUser(newFile.getOriginalFilename(), user)).thenReturn(true);
+        when(imageRepository.existsByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(true);
+        when(imageRepository.existsByFilenameAndUserEmail(newFile.getOriginalFilename(), user.getEmail())).thenReturn(true);
 
         // then
-        assertThatThrownBy(() -> imageService.changeImage(filename, newFile, TOKEN))
+        assertThatThrownBy(() -> imageService.changeImage(filename, newFile, principal))
                 .isInstanceOf(ImageAlreadyExistsException.class)
                 .hasMessageContaining("Image " + newFile.getOriginalFilename() + " already exists");
     }
@@ -261,179 +630,206 @@ class ImageServiceTest {
     @Test
     void testDeleteImageShouldReturnString() {
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(image.getFilename(), user)).thenReturn(true);
-        doNothing().when(imageRepository).deleteByFilenameAndUser(image.getFilename(), user);
+        when(imageRepository.findByFilenameAndUserEmail(image.getFilename(), user.getEmail())).thenReturn(Optional.of(image));
+        when(imageBlobRepository.deleteUnreferenced(CONTENT_HASH)).thenReturn(1);
 
-        String expected = imageService.deleteImage(image.getFilename(), TOKEN);
+        String expected = imageService.deleteImage(image.getFilename(), principal);
 
         // then
         assertThat(expected).isNotNull();
-        verify(imageRepository, times(1)).deleteByFilenameAndUser(image.getFilename(), user);
+        verify(imageRepository, times(1)).delete(image);
+        verify(imageBlobRepository, times(1)).decrementRefCount(CONTENT_HASH);
+        verify(imageStore, times(1)).delete(CONTENT_HASH);
+        verify(imageCache, times(1)).invalidate(user.getEmail(), image.getFilename());
     }
 
     @Test
-    void testDeleteImageShouldThrowImageNotFoundException() {
+    void testDeleteImageInTransactionShouldDeleteContentAfterCommit() {
         // given
-        String filename = "imageNotFound";
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // when
+            when(imageRepository.findByFilenameAndUserEmail(image.getFilename(), user.getEmail())).thenReturn(Optional.of(image));
+            when(imageBlobRepository.deleteUnreferenced(CONTENT_HASH)).thenReturn(1);
+
+            imageService.deleteImage(image.getFilename(), principal);
+
+            // then
+            verify(imageStore, never()).delete(any());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(imageStore, times(1)).delete(CONTENT_HASH);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void testDeleteImageRolledBackShouldKeepContent() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // when
+            when(imageRepository.findByFilenameAndUserEmail(image.getFilename(), user.getEmail())).thenReturn(Optional.of(image));
+            when(imageBlobRepository.deleteUnreferenced(CONTENT_HASH)).thenReturn(1);
+
+            imageService.deleteImage(image.getFilename(), principal);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+            // then
+            verify(imageStore, never()).delete(any());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
 
+    @Test
+    void testDeleteImageShouldKeepContentStillUsedByOtherImage() {
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByFilenameAndUser(filename, user)).thenReturn(false);
+        when(imageRepository.findByFilenameAndUserEmail(image.getFilename(), user.getEmail())).thenReturn(Optional.of(image));
+        when(imageBlobRepository.deleteUnreferenced(CONTENT_HASH)).thenReturn(0);
+
+        imageService.deleteImage(image.getFilename(), principal);
 
         // then
-        assertThatThrownBy(() -> imageService.deleteImage(filename, TOKEN))
-                .isInstanceOf(ImageNotFoundException.class)
-                .hasMessageContaining("Image " + filename + " does not exist");
+        verify(imageRepository, times(1)).delete(image);
+        verify(imageBlobRepository, times(1)).decrementRefCount(CONTENT_HASH);
+        verify(imageStore, never()).delete(any());
     }
 
     @Test
-    void testGetImagesByDateTimeAndPageShouldReturnImageResponseList() {
+    void testDeleteImageShouldThrowImageNotFoundException() {
         // given
-
-        LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        Pageable pageable = PageRequest.of(0, 2);
+        String filename = "imageNotFound";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(true);
-        when(imageRepository.findByCreatedAtAndUser(dateTime, user, pageable)).thenReturn(List.of(image));
-
-        List<ImageResponse> expected = imageService.getImagesByDateTimeAndPage(dateTime, 0, TOKEN);
+        when(imageRepository.findByFilenameAndUserEmail(filename, user.getEmail())).thenReturn(Optional.empty());
 
         // then
-        assertThat(expected).isNotNull();
-    }@Test
-    void testGetImagesByDateTimeAndPageShouldThrowImageNotFoundException() {
+        assertThatThrownBy(() -> imageService.deleteImage(filename, principal))
+                .isInstanceOf(ImageNotFoundException.class)
+                .hasMessageContaining("Image " + filename + " does not exist");
+    }
+
+    @Test
+    void testGetImagesShouldReturnImagePage() {
         // given
         LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        int page = 0;
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(false);
+        when(imageRepository.findPage(user.getEmail(), dateTime, ImageSort.CREATED_AT, null, ImageService.DEFAULT_PAGE_SIZE + 1))
+                .thenReturn(List.of(summary));
+
+        ImagePage expected = imageService.getImages(dateTime, null, null, null, principal);
 
         // then
-        assertThatThrownBy(() -> imageService.getImagesByDateTimeAndPage(dateTime, page, TOKEN))
-                .isInstanceOf(ImageNotFoundException.class)
-                .hasMessageContaining("No images found");
+        assertThat(expected.getImages()).hasSize(1);
+        assertThat(expected.getImages().get(0).getFilename()).isEqualTo(summary.getFilename());
+        assertThat(expected.getNext()).isNull();
     }
 
     @Test
-    void testGetImagesByDateTimeAndPageAndSortShouldReturnImageResponseListByASC() {
+    void testGetImagesShouldReturnCursorForNextPage() {
         // given
-
-        String order = "ASC";
-        LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        int page = 0;
-        Pageable pageable = PageRequest.of(page, 2);
+        ImageSummary summary2 = new ImageSummary(2L, "Earth2.gif", 8L, image.getCreatedAt(), CONTENT_HASH);
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(true);
-        when(imageRepository.findByCreatedAtAndUserOrderBySizeAsc(dateTime, user, pageable)).thenReturn(List.of(image));
+        when(imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_ASC, null, 2)).thenReturn(List.of(summary, summary2));
 
-        List<ImageResponse> expected = imageService.getImagesByDateTimeAndPageAndSort(dateTime,page, TOKEN, order);
+        ImagePage expected = imageService.getImages(null, "ASC", 1, null, principal);
 
         // then
-        assertThat(expected).isNotNull();
+        assertThat(expected.getImages()).hasSize(1);
+        assertThat(expected.getNext()).isEqualTo(ImageCursor.after(summary, ImageSort.SIZE_ASC).encode());
     }
 
     @Test
-    void testGetImagesByDateTimeAndPageAndSortShouldReturnImageResponseListByDESC() {
+    void testGetImagesShouldContinueFromCursor() {
         // given
-
-        String order = "DESC";
-        LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        int page = 0;
-        Pageable pageable = PageRequest.of(page, 2);
+        ImageCursor cursor = ImageCursor.after(summary, ImageSort.SIZE_DESC);
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(true);
-        when(imageRepository.findByCreatedAtAndUserOrderBySizeDesc(dateTime, user, pageable)).thenReturn(List.of(image));
+        when(imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_DESC, cursor, ImageService.MAX_PAGE_SIZE + 1))
+                .thenReturn(List.of());
 
-        List<ImageResponse> expected = imageService.getImagesByDateTimeAndPageAndSort(dateTime,page, TOKEN, order);
+        ImagePage expected = imageService.getImages(null, "DESC", 1000, cursor.encode(), principal);
 
         // then
-        assertThat(expected).isNotNull();
+        assertThat(expected.getImages()).isEmpty();
+        assertThat(expected.getNext()).isNull();
     }
 
     @Test
-    void testGetImagesByDateTimeAndPageAndSortShouldThrowImageNotFoundException() {
+    void testGetImagesShouldThrowImageNotFoundException() {
         // given
         LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        int page = 0;
-        String order = "DESC";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(false);
+        when(imageRepository.findPage(user.getEmail(), dateTime, ImageSort.CREATED_AT, null, ImageService.DEFAULT_PAGE_SIZE + 1))
+                .thenReturn(List.of());
 
         // then
-        assertThatThrownBy(() -> imageService.getImagesByDateTimeAndPageAndSort(dateTime, page, TOKEN, order))
+        assertThatThrownBy(() -> imageService.getImages(dateTime, null, null, null, principal))
                 .isInstanceOf(ImageNotFoundException.class)
                 .hasMessageContaining("No images found");
     }
 
     @Test
-    void testGetImagesByDateTimeAndPageAndSortShouldThrowInvalidSortOrderException() {
+    void testGetImagesShouldThrowInvalidSortOrderException() {
         // given
-        LocalDateTime dateTime = LocalDateTime.now().withNano(0);
-        int page = 0;
         String orderToFail = "fail";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByCreatedAtAndUser(dateTime, user)).thenReturn(true);
 
         // then
-        assertThatThrownBy(() -> imageService.getImagesByDateTimeAndPageAndSort(dateTime, page, TOKEN, orderToFail))
+        assertThatThrownBy(() -> imageService.getImages(null, orderToFail, null, null, principal))
                 .isInstanceOf(InvalidSortOrderException.class)
                 .hasMessageContaining("Invalid sort order. Only use ASC or DESC");
     }
 
     @Test
-    void testSortAllImagesShouldReturnImageResponseListByASC() {
+    void testGetImagesShouldThrowInvalidCursorException() {
         // given
+        String cursor = ImageCursor.after(summary, ImageSort.SIZE_ASC).encode();
+
+        // when
 
+        // then
+        assertThatThrownBy(() -> imageService.getImages(null, null, null, cursor, principal))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessageContaining("Cursor does not belong to this sort order");
+        assertThatThrownBy(() -> imageService.getImages(null, null, null, "not a cursor", principal))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessageContaining("Invalid cursor");
+    }
+
+    @Test
+    void testSortAllImagesShouldReturnImagePageByASC() {
+        // given
         String order = "ASC";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByUser(user)).thenReturn(true);
-        when(imageRepository.findByUserOrderBySizeAsc(user)).thenReturn(List.of(image));
+        when(imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_ASC, null, ImageService.DEFAULT_PAGE_SIZE + 1))
+                .thenReturn(List.of(summary));
 
-        List<ImageResponse> expected = imageService.sortAllImages(order, TOKEN);
+        ImagePage expected = imageService.sortAllImages(order, null, null, principal);
 
         // then
-        assertThat(expected).isNotNull();
+        assertThat(expected.getImages()).hasSize(1);
     }
 
     @Test
-    void testSortAllImagesShouldReturnImageResponseListByDESC() {
+    void testSortAllImagesShouldReturnImagePageByDESC() {
         // given
         String order = "DESC";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByUser(user)).thenReturn(true);
-        when(imageRepository.findByUserOrderBySizeDesc(user)).thenReturn(List.of(image));
+        when(imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_DESC, null, 11)).thenReturn(List.of(summary));
 
-        List<ImageResponse> expected = imageService.sortAllImages(order, TOKEN);
+        ImagePage expected = imageService.sortAllImages(order, 10, null, principal);
 
         // then
-        assertThat(expected).isNotNull();
+        assertThat(expected.getImages()).hasSize(1);
     }
 
     @Test
@@ -442,12 +838,11 @@ class ImageServiceTest {
         String order = "DESC";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByUser(user)).thenReturn(false);
+        when(imageRepository.findPage(user.getEmail(), null, ImageSort.SIZE_DESC, null, ImageService.DEFAULT_PAGE_SIZE + 1))
+                .thenReturn(List.of());
 
         // then
-        assertThatThrownBy(() -> imageService.sortAllImages(order, TOKEN))
+        assertThatThrownBy(() -> imageService.sortAllImages(order, null, null, principal))
                 .isInstanceOf(ImageNotFoundException.class)
                 .hasMessageContaining("No images found");
     }
@@ -458,13 +853,27 @@ class ImageServiceTest {
         String orderToFail = "fail";
 
         // when
-        when(jwtService.extractUsername(any())).thenReturn(user.getEmail());
-        when(userRepository.findUserByEmail(user.getEmail())).thenReturn(user);
-        when(imageRepository.existsByUser(user)).thenReturn(true);
 
         // then
-        assertThatThrownBy(() -> imageService.sortAllImages(orderToFail, TOKEN))
+        assertThatThrownBy(() -> imageService.sortAllImages(orderToFail, null, null, principal))
                 .isInstanceOf(InvalidSortOrderException.class)
                 .hasMessageContaining("Invalid sort order. Only use ASC or DESC");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testExportImagesShouldWriteJsonArray() throws IOException {
+        // given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        when(imageRepository.streamAll(user.getEmail(), ImageSort.SIZE_ASC)).thenReturn(Stream.of(summary));
+
+        imageService.exportImages("ASC", principal, out);
+
+        // then
+        List<ImageResponse> expected = objectMapper.readValue(out.toByteArray(), new TypeReference<>() {});
+        assertThat(expected).hasSize(1);
+        assertThat(expected.get(0).getFilename()).isEqualTo(summary.getFilename());
+        assertThat(expected.get(0).getCreatedAt()).isEqualTo(summary.getCreatedAt());
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.spark_project.image;
+
+import com.example.spark_project.exception.FileNotAnImageException;
+import com.example.spark_project.exception.ImageUploadNotFoundException;
+import com.example.spark_project.exception.InvalidImageUploadException;
+import com.example.spark_project.exception.TooManyImageUploadsException;
+import com.example.spark_project.security.AuthenticatedUser;
+import com.example.spark_project.user.Role;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ImageUploadServiceTest {
+
+    private static final AuthenticatedUser OWNER = new AuthenticatedUser(1L, "john_evans@gmail.com", Role.USER);
+
+    @TempDir
+    private Path directory;
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private ImageRepository imageRepository;
+
+    private ImageUploadService imageUploadService;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() {
+        imageUploadService = new ImageUploadService(
+                imageService, imageRepository,
+                directory.toString(), DataSize.ofKilobytes(1), Duration.ofHours(1), 2, 3
+        );
+        data = new byte[20];
+        System.arraycopy("GIF89a".getBytes(), 0, data, 0, 6);
+        for (int i = 6; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageUploadService.shutdown();
+    }
+
+    @Test
+    void testWriteChunksInAnyOrderShouldCompleteUpload() throws IOException {
+        // given
+        String id = create(data.length);
+
+        // when
+        imageUploadService.writeChunk(id, 16, chunk(16, 20), OWNER);
+        imageUploadService.writeChunk(id, 0, chunk(0, 12), OWNER);
+        ImageUploadStatus status = imageUploadService.writeChunk(id, 12, chunk(12, 16), OWNER);
+
+        when(imageService.uploadImage(eq("Earth.gif"), eq(ImageFormat.GIF), any(Path.class), eq(OWNER)))
+                .thenAnswer(invocation -> {
+                    assertThat(Files.readAllBytes(invocation.getArgument(2, Path.class))).isEqualTo(data);
+                    return ImageResponse.builder().filename("Earth.gif").size((long) data.length).build();
+                });
+        ImageResponse expected = imageUploadService.completeUpload(id, OWNER);
+
+        // then
+        assertThat(status.getReceived()).containsExactly(new ImageUploadRange(0, data.length));
+        assertThat(expected.getSize()).isEqualTo(data.length);
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    @Test
+    void testCompleteUploadShouldWaitForChunkBeingWritten() throws Exception {
+        // given
+        String id = create(data.length);
+        imageUploadService.writeChunk(id, 0, chunk(0, data.length), OWNER);
+
+        byte[] resent = Arrays.copyOf(data, data.length);
+        for (int i = 10; i < resent.length; i++) {
+            resent[i] = (byte) (i + 100);
+        }
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slowChunk = new ByteArrayInputStream(resent, 10, 10) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        List<byte[]> stored = new CopyOnWriteArrayList<>();
+        when(imageService.uploadImage(eq("Earth.gif"), eq(ImageFormat.GIF), any(Path.class), eq(OWNER)))
+                .thenAnswer(invocation -> {
+                    stored.add(Files.readAllBytes(invocation.getArgument(2, Path.class)));
+                    return ImageResponse.builder().filename("Earth.gif").size((long) data.length).build();
+                });
+
+        // when
+        Thread writer = new Thread(() -> imageUploadService.writeChunk(id, 10, slowChunk, OWNER));
+        writer.start();
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+
+        Thread completer = new Thread(() -> {
+            try {
+                imageUploadService.completeUpload(id, OWNER);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        completer.start();
+        //complete has to be parked on the chunk before the chunk is let through
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (completer.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(stored).isEmpty();
+
+        release.countDown();
+        writer.join(5000);
+        completer.join(5000);
+
+        // then
+        assertThat(stored).hasSize(1);
+        assertThat(stored.get(0)).isEqualTo(resent);
+        assertThatThrownBy(() -> imageUploadService.writeChunk(id, 0, chunk(0, 12), OWNER))
+                .isInstanceOf(ImageUploadNotFoundException.class);
+    }
+
+    @Test
+    void testGetUploadShouldReturnMergedReceivedRanges() {
+        // given
+        String id = create(data.length);
+
+        // when
+        imageUploadService.writeChunk(id, 0, chunk(0, 12), OWNER);
+        imageUploadService.writeChunk(id, 12, chunk(12, 14), OWNER);
+        imageUploadService.writeChunk(id, 18, chunk(18, 20), OWNER);
+        ImageUploadStatus status = imageUploadService.getUpload(id, OWNER);
+
+        // then
+        assertThat(status.getReceived()).isEqualTo(List.of(new ImageUploadRange(0, 14), new ImageUploadRange(18, 20)));
+    }
+
+    @Test
+    void testCompleteUploadWithMissingPartsShouldThrowInvalidImageUploadException() {
+        // given
+        String id = create(data.length);
+        imageUploadService.writeChunk(id, 0, chunk(0, 12), OWNER);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.completeUpload(id, OWNER))
+                .isInstanceOf(InvalidImageUploadException.class)
+                .hasMessageContaining("is missing parts of the image");
+        verifyNoInteractions(imageService);
+    }
+
+    @Test
+    void testWriteChunkPastEndShouldThrowInvalidImageUploadException() {
+        // given
+        String id = create(4);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.writeChunk(id, 2, chunk(0, 3), OWNER))
+                .isInstanceOf(InvalidImageUploadException.class)
+                .hasMessageContaining("Chunk goes past the end of the image");
+        assertThat(imageUploadService.getUpload(id, OWNER).getReceived()).isEmpty();
+    }
+
+    @Test
+    void testUploadOfOtherUserShouldThrowImageUploadNotFoundException() {
+        // given
+        String id = create(data.length);
+
+        // when
+        AuthenticatedUser other = new AuthenticatedUser(2L, "someone_else@gmail.com", Role.USER);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.getUpload(id, other))
+                .isInstanceOf(ImageUploadNotFoundException.class)
+                .hasMessageContaining("does not exist");
+    }
+
+    @Test
+    void testCreateUploadShouldRejectTooBigImages() {
+        // given
+        ImageUploadRequest request = new ImageUploadRequest("Earth.gif", 2048L);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.createUpload(request, OWNER))
+                .isInstanceOf(InvalidImageUploadException.class);
+    }
+
+    @Test
+    void testCreateUploadPastLimitOfUserShouldThrowTooManyImageUploadsException() {
+        // given
+        create(data.length);
+        String id = create(data.length);
+
+        // then
+        assertThatThrownBy(() -> create(data.length))
+                .isInstanceOf(TooManyImageUploadsException.class)
+                .hasMessageContaining("2 uploads in progress");
+
+        // when
+        imageUploadService.cancelUpload(id, OWNER);
+
+        // then
+        assertThat(create(data.length)).isNotNull();
+    }
+
+    @Test
+    void testCreateUploadPastTotalLimitShouldThrowTooManyImageUploadsException() {
+        // given
+        AuthenticatedUser other = new AuthenticatedUser(2L, "someone_else@gmail.com", Role.USER);
+        create(data.length);
+        create(data.length);
+        imageUploadService.createUpload(new ImageUploadRequest("Earth.gif", (long) data.length), other);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.createUpload(new ImageUploadRequest("Mars.gif", (long) data.length), other))
+                .isInstanceOf(TooManyImageUploadsException.class)
+                .hasMessageContaining("Too many uploads");
+    }
+
+    @Test
+    void testFirstChunkOfNonImageShouldDropUpload() {
+        // given
+        String id = create(data.length);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.writeChunk(id, 0, new ByteArrayInputStream("not an image".getBytes()), OWNER))
+                .isInstanceOf(FileNotAnImageException.class);
+        assertThat(directory).isEmptyDirectory();
+        assertThatThrownBy(() -> imageUploadService.getUpload(id, OWNER))
+                .isInstanceOf(ImageUploadNotFoundException.class);
+    }
+
+    @Test
+    void testFirstChunkShorterThanHeaderShouldThrowInvalidImageUploadException() {
+        // given
+        String id = create(data.length);
+
+        // then
+        assertThatThrownBy(() -> imageUploadService.writeChunk(id, 0, chunk(0, 4), OWNER))
+                .isInstanceOf(InvalidImageUploadException.class)
+                .hasMessageContaining("First chunk should have at least");
+    }
+
+    @Test
+    void testRemoveExpiredUploadsShouldDeleteInactiveUploads() {
+        // given
+        imageUploadService = new ImageUploadService(
+                imageService, imageRepository,
+                directory.toString(), DataSize.ofKilobytes(1), Duration.ZERO, 2, 3
+        );
+        String id = create(data.length);
+
+        // when
+        imageUploadService.removeExpiredUploads();
+
+        // then
+        assertThat(directory).isEmptyDirectory();
+        assertThatThrownBy(() -> imageUploadService.getUpload(id, OWNER))
+                .isInstanceOf(ImageUploadNotFoundException.class);
+    }
+
+    private String create(long size) {
+        return imageUploadService.createUpload(new ImageUploadRequest("Earth.gif", size), OWNER).getId();
+    }
+
+    private ByteArrayInputStream chunk(int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(data, from, to));
+    }
+}
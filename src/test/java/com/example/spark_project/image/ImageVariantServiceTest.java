@@ -0,0 +1,179 @@
+package com.example.spark_project.image;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ImageVariantServiceTest {
+
+    @TempDir
+    private Path root;
+
+    private FileSystemImageStore imageStore;
+    private ImageVariantService imageVariantService;
+
+    @BeforeEach
+    void setUp() {
+        imageStore = new FileSystemImageStore(root.toString());
+        imageVariantService = new ImageVariantService(imageStore, 200, 800, 1, 10, 40_000_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        imageVariantService.shutdown();
+    }
+
+    @Test
+    void testCreateVariantsShouldFitImageIntoVariantSize() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(png(1000, 500))).key();
+
+        // when
+        imageVariantService.createVariants(key);
+
+        // then
+        BufferedImage thumbnail = read(imageVariantService.find(key, ImageVariant.THUMBNAIL).orElseThrow().getInputStream());
+        BufferedImage medium = read(imageVariantService.find(key, ImageVariant.MEDIUM).orElseThrow().getInputStream());
+        assertThat(thumbnail.getWidth()).isEqualTo(200);
+        assertThat(thumbnail.getHeight()).isEqualTo(100);
+        assertThat(medium.getWidth()).isEqualTo(800);
+        assertThat(medium.getHeight()).isEqualTo(400);
+    }
+
+    @Test
+    void testCreateVariantsShouldKeepSizeOfSmallImages() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(png(100, 50))).key();
+
+        // when
+        imageVariantService.createVariants(key);
+
+        // then
+        BufferedImage thumbnail = read(imageVariantService.find(key, ImageVariant.THUMBNAIL).orElseThrow().getInputStream());
+        assertThat(thumbnail.getWidth()).isEqualTo(100);
+        assertThat(thumbnail.getHeight()).isEqualTo(50);
+    }
+
+    @Test
+    void testCreateVariantsShouldSkipUnreadableContent() {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(new byte[] {0x00, 0x01, 0x02, 0x03})).key();
+
+        // when
+        imageVariantService.createVariants(key);
+
+        // then
+        assertThat(imageStore.getVariant(key, ImageVariant.THUMBNAIL.key())).isEmpty();
+    }
+
+    @Test
+    void testCreateVariantsOfMalformedImageShouldNotQueueItAgain() throws IOException {
+        // given
+        ImageStore stubStore = mock(ImageStore.class);
+        ImageVariantService stubService = new ImageVariantService(stubStore, 200, 800, 1, 10, 40_000_000);
+        String key = "malformed";
+        byte[] content = malformedBmp();
+        when(stubStore.get(key)).thenReturn(new ByteArrayResource(content));
+
+        // when
+        try {
+            stubService.createVariants(key);
+            Optional<Resource> thumbnail = stubService.find(key, ImageVariant.THUMBNAIL);
+
+            // then
+            assertThat(thumbnail).isEmpty();
+            verify(stubStore, times(1)).get(key);
+            verify(stubStore, never()).putVariant(any(), any(), any());
+        } finally {
+            stubService.shutdown();
+        }
+    }
+
+    @Test
+    void testCreateVariantsShouldSkipImageWithOversizedHeader() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(withSize(png(10, 10), 20_000, 20_000))).key();
+
+        // when
+        imageVariantService.createVariants(key);
+
+        // then
+        assertThat(imageStore.getVariant(key, ImageVariant.THUMBNAIL.key())).isEmpty();
+        assertThat(imageVariantService.find(key, ImageVariant.THUMBNAIL)).isEmpty();
+    }
+
+    @Test
+    void testCreateVariantsShouldSubsampleBigImages() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(png(4000, 2000))).key();
+
+        // when
+        imageVariantService.createVariants(key);
+
+        // then
+        BufferedImage medium = read(imageVariantService.find(key, ImageVariant.MEDIUM).orElseThrow().getInputStream());
+        assertThat(medium.getWidth()).isEqualTo(800);
+        assertThat(medium.getHeight()).isEqualTo(400);
+    }
+
+    @Test
+    void testFindShouldBeEmptyBeforeVariantIsGenerated() throws IOException {
+        // given
+        String key = imageStore.put(new ByteArrayInputStream(png(10, 10))).key();
+
+        // then
+        assertThat(imageStore.getVariant(key, ImageVariant.MEDIUM.key())).isEmpty();
+        assertThat(imageVariantService.find(key, ImageVariant.MEDIUM)).isEmpty();
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", out);
+        return out.toByteArray();
+    }
+
+    //bmp whose pixel data offset is negative, the JDK reader fails with NegativeArraySizeException
+    //(malformed jpegs are reported as IIOException, this is a real file a reader throws a runtime exception for)
+    static byte[] malformedBmp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "bmp", out);
+        byte[] bmp = out.toByteArray();
+        bmp[13] = (byte) 0x82;
+        return bmp;
+    }
+
+    //png whose IHDR claims another size than the pixel data it has
+    static byte[] withSize(byte[] png, int width, int height) {
+        byte[] data = png.clone();
+        //8 byte signature, 4 byte length, "IHDR", then width and height
+        ByteBuffer.wrap(data, 16, 8).putInt(width).putInt(height);
+        CRC32 crc = new CRC32();
+        crc.update(data, 12, 4 + 13);
+        ByteBuffer.wrap(data, 29, 4).putInt((int) crc.getValue());
+        return data;
+    }
+
+    private static BufferedImage read(InputStream content) throws IOException {
+        try (content) {
+            return ImageIO.read(content);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.spark_project.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+class HmacJwtCodecTest {
+
+    private static final String EMAIL = "john_evans@gmail.com";
+
+    private Key key;
+    private HmacJwtCodec codec;
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode("66556A586E3272357538782F413F4428472B4B6250655367566B597033733676"));
+        codec = new HmacJwtCodec(key);
+        now = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    @Test
+    void testSignedTokenShouldBeReadableByJjwt() {
+        // when
+        String token = codec.sign(EMAIL, 1L, "USER", now, now + 60_000);
+
+        // then
+        Claims claims = Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
+        assertThat(claims.getSubject()).isEqualTo(EMAIL);
+        assertThat(TokenClaims.from(claims)).isEqualTo(new TokenClaims(EMAIL, 1L, "USER", now, now + 60_000));
+        assertThat(claims.getIssuedAt()).isEqualTo(new Date(now));
+        assertThat(claims.getExpiration()).isEqualTo(new Date(now + 60_000));
+    }
+
+    @Test
+    void testVerifyShouldReadJjwtToken() {
+        // given
+        String token = jjwt(Map.of("uid", 1L, "role", "USER"), now + 60_000);
+        String withoutUser = jjwt(Map.of(), now + 60_000);
+
+        // when
+        TokenClaims claims = codec.verify(token);
+
+        // then
+        assertThat(claims).isEqualTo(new TokenClaims(EMAIL, 1L, "USER", now, now + 60_000));
+        assertThat(codec.verify(withoutUser)).isEqualTo(new TokenClaims(EMAIL, null, null, now, now + 60_000));
+    }
+
+    @Test
+    void testIssuedAtShouldKeepMillis() {
+        // given
+        long issuedAt = now + 123;
+
+        // when
+        TokenClaims claims = codec.verify(codec.sign(EMAIL, 1L, "USER", issuedAt, now + 60_000));
+
+        // then
+        assertThat(claims.issuedAt()).isEqualTo(issuedAt);
+        assertThat(TokenClaims.from(Jwts.parserBuilder().setSigningKey(key).build()
+                .parseClaimsJws(jjwt(Map.of("iat_ms", issuedAt), now + 60_000)).getBody()).issuedAt())
+                .isEqualTo(issuedAt);
+    }
+
+    @Test
+    void testVerifyShouldLeaveTamperedTokenToJjwt() {
+        // given
+        String token = codec.sign(EMAIL, 1L, "USER", now, now + 60_000);
+        String[] parts = token.split("\\.");
+        String payload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                ("{\"sub\":\"admin@gmail.com\",\"iat\":" + now / 1000 + ",\"exp\":" + (now / 1000 + 60) + "}")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        // then
+        assertThat(codec.verify(parts[0] + "." + payload + "." + parts[2])).isNull();
+        assertThat(codec.verify(parts[0] + "." + parts[1] + ".")).isNull();
+        assertThat(codec.verify("not a token")).isNull();
+    }
+
+    @Test
+    void testVerifyShouldLeaveExpiredTokenToJjwt() {
+        // given
+        String token = codec.sign(EMAIL, 1L, "USER", now - 120_000, now - 60_000);
+
+        // then
+        assertThat(codec.verify(token)).isNull();
+    }
+
+    @Test
+    void testVerifyShouldLeaveUnknownClaimsToJjwt() {
+        // given
+        String token = jjwt(Map.of("scope", "admin"), now + 60_000);
+
+        // then
+        assertThat(codec.verify(token)).isNull();
+    }
+
+    @Test
+    void testParseShouldRejectUnusualPayloads() {
+        // then
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\",\"exp\":1,\"exp\":2}"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\\u0040b\",\"exp\":1}"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\",\"exp\":1.5}"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\"}"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\",\"uid\":\"1\",\"exp\":1}"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes("{\"sub\":\"a\",\"exp\":1} x"))).isNull();
+        assertThat(HmacJwtCodec.parse(bytes(" { \"sub\" : \"a\" , \"exp\" : 1 } ")))
+                .isEqualTo(new TokenClaims("a", null, null, 0, 1000));
+    }
+
+    private String jjwt(Map<String, Object> extraClaims, long expiration) {
+        return Jwts.builder()
+                .setClaims(extraClaims)
+                .setSubject(EMAIL)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(expiration))
+                .signWith(key, SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.spark_project.security;
+
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+class JwtServiceTest {
+
+    private JwtService jwtService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        jwtService = new JwtService(100);
+        user = User.builder()
+                .firstName("John")
+                .lastName("Evans")
+                .email("john_evans@gmail.com")
+                .password("Test.123")
+                .repeatPassword("Test.123")
+                .id(1L)
+                .role(Role.USER)
+                .build();
+    }
+
+    @Test
+    void testIsTokenValidShouldReturnTrueForOwnToken() {
+        // given
+        String token = jwtService.generateToken(user);
+
+        // when
+        boolean valid = jwtService.isTokenValid(token, user);
+
+        // then
+        assertThat(valid).isTrue();
+        assertThat(jwtService.extractUsername(token)).isEqualTo(user.getEmail());
+    }
+
+    @Test
+    void testGenerateTokenShouldCarryUserIdAndRole() {
+        // when
+        String token = jwtService.generateToken(user);
+        String withExtraClaims = jwtService.generateToken(Map.of("scope", "images"), user);
+
+        // then
+        TokenClaims claims = jwtService.extractAllClaims(token);
+        assertThat(claims.userId()).isEqualTo(1L);
+        assertThat(claims.role()).isEqualTo("USER");
+        assertThat(jwtService.extractAllClaims(withExtraClaims).userId()).isEqualTo(1L);
+    }
+
+    @Test
+    void testIsTokenValidShouldReturnFalseForOtherUser() {
+        // given
+        String token = jwtService.generateToken(user);
+        User other = User.builder().email("someone_else@gmail.com").build();
+
+        // when
+        boolean valid = jwtService.isTokenValid(token, other);
+
+        // then
+        assertThat(valid).isFalse();
+    }
+
+    @Test
+    void testExtractClaimShouldReuseVerifiedClaims() {
+        // given
+        String token = jwtService.generateToken(user);
+
+        // when
+        Object first = jwtService.extractClaim(token, claims -> claims);
+        Object second = jwtService.extractClaim(token, claims -> claims);
+
+        // then
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void testTamperedTokenShouldThrowAfterValidOneWasCached() {
+        // given
+        String token = jwtService.generateToken(user);
+        jwtService.extractUsername(token);
+        String tampered = token.substring(0, token.length() - 2)
+                + (token.endsWith("AA") ? "BB" : "AA");
+
+        // then
+        assertThatThrownBy(() -> jwtService.extractUsername(tampered))
+                .isInstanceOf(SignatureException.class);
+    }
+}
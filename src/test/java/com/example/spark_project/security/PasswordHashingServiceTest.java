@@ -0,0 +1,89 @@
+package com.example.spark_project.security;
+
+import com.example.spark_project.exception.PasswordHashingBusyException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+class PasswordHashingServiceTest {
+
+    private PasswordHashingService passwordHashingService;
+
+    @BeforeEach
+    void setUp() {
+        passwordHashingService = new PasswordHashingService(1, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        passwordHashingService.shutdown();
+    }
+
+    @Test
+    void testExecuteShouldReturnResultOfTask() {
+        // when
+        String result = passwordHashingService.execute(() -> "hash");
+
+        // then
+        assertThat(result).isEqualTo("hash");
+    }
+
+    @Test
+    void testExecuteShouldRethrowExceptionOfTask() {
+        // then
+        assertThatThrownBy(() -> passwordHashingService.execute(() -> {
+            throw new BadCredentialsException("Bad credentials");
+        }))
+                .isInstanceOf(BadCredentialsException.class)
+                .hasMessageContaining("Bad credentials");
+    }
+
+    @Test
+    void testExecuteWhenSaturatedShouldThrowPasswordHashingBusyException() throws InterruptedException {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread running = new Thread(() -> passwordHashingService.execute(() -> {
+            started.countDown();
+            return await(release);
+        }));
+        running.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        //parked in Future.get once its task is in the queue
+        Thread queued = new Thread(() -> passwordHashingService.execute(() -> await(release)));
+        queued.start();
+        awaitWaiting(queued);
+
+        // then
+        try {
+            assertThatThrownBy(() -> passwordHashingService.execute(() -> "hash"))
+                    .isInstanceOf(PasswordHashingBusyException.class)
+                    .hasMessageContaining("busy");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static void awaitWaiting(Thread thread) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.spark_project.security;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.jdbc.EmbeddedDatabaseConnection;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect")
+@AutoConfigureTestDatabase(connection = EmbeddedDatabaseConnection.H2)
+class TokenRevocationRepositoryTest {
+
+    @Autowired
+    private TokenRevocationRepository tokenRevocationRepository;
+
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        tokenRevocationRepository.save(new TokenRevocation(1L, now));
+        tokenRevocationRepository.save(new TokenRevocation(2L, now.minus(2, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    void testFindByRevokedBeforeAfterShouldReturnRecentRevocations() {
+        // when
+        List<TokenRevocation> revocations = tokenRevocationRepository.findByRevokedBeforeAfter(now.minus(1, ChronoUnit.HOURS));
+
+        // then
+        assertThat(revocations).extracting(TokenRevocation::getUserId).containsExactly(1L);
+    }
+
+    @Test
+    void testDeleteExpiredShouldRemoveOldRevocations() {
+        // when
+        int deleted = tokenRevocationRepository.deleteExpired(now.minus(1, ChronoUnit.HOURS));
+
+        // then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(tokenRevocationRepository.findAll()).extracting(TokenRevocation::getUserId).containsExactly(1L);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.spark_project.security;
+
+import com.example.spark_project.user.Role;
+import com.example.spark_project.user.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TokenRevocationServiceTest {
+
+    @Mock
+    private TokenRevocationRepository tokenRevocationRepository;
+
+    @InjectMocks
+    private TokenRevocationService tokenRevocationService;
+
+    @Test
+    void testRevokeShouldRejectOlderTokensOnly() {
+        // given
+        long now = System.currentTimeMillis();
+
+        // when
+        tokenRevocationService.revoke(1L);
+
+        // then
+        verify(tokenRevocationRepository, times(1)).save(any(TokenRevocation.class));
+        assertThat(tokenRevocationService.isRevoked(1L, now - 60_000)).isTrue();
+        assertThat(tokenRevocationService.isRevoked(1L, now + 60_000)).isFalse();
+        assertThat(tokenRevocationService.isRevoked(2L, now - 60_000)).isFalse();
+    }
+
+    @Test
+    void testLogoutRightAfterLoginShouldRevokeToken() throws InterruptedException {
+        // given
+        JwtService jwtService = new JwtService(100);
+        User user = User.builder()
+                .id(1L)
+                .email("john_evans@gmail.com")
+                .role(Role.USER)
+                .build();
+        String token = jwtService.generateToken(user);
+
+        // when
+        tokenRevocationService.revoke(user.getId());
+        Thread.sleep(2);
+        String newToken = jwtService.generateToken(user);
+
+        // then
+        TokenClaims claims = jwtService.extractAllClaims(token);
+        TokenClaims newClaims = jwtService.extractAllClaims(newToken);
+        assertThat(newClaims.issuedAt() - claims.issuedAt()).isLessThan(1000);
+        assertThat(tokenRevocationService.isRevoked(user.getId(), claims.issuedAt())).isTrue();
+        assertThat(tokenRevocationService.isRevoked(user.getId(), newClaims.issuedAt())).isFalse();
+    }
+
+    @Test
+    void testRefreshShouldLoadRevocationsOfOtherInstances() {
+        // given
+        Instant revokedBefore = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        long issuedAt = revokedBefore.toEpochMilli() - 60_000;
+
+        // when
+        when(tokenRevocationRepository.findByRevokedBeforeAfter(any()))
+                .thenReturn(List.of(new TokenRevocation(2L, revokedBefore)));
+        tokenRevocationService.refresh();
+
+        // then
+        verify(tokenRevocationRepository, times(1)).deleteExpired(any());
+        assertThat(tokenRevocationService.isRevoked(2L, issuedAt)).isTrue();
+    }
+
+    @Test
+    void testRefreshShouldKeepLocalRevocations() {
+        // given
+        long issuedAt = System.currentTimeMillis() - 60_000;
+        tokenRevocationService.revoke(1L);
+
+        // when
+        when(tokenRevocationRepository.findByRevokedBeforeAfter(any())).thenReturn(List.of());
+        tokenRevocationService.refresh();
+
+        // then
+        assertThat(tokenRevocationService.isRevoked(1L, issuedAt)).isTrue();
+    }
+}
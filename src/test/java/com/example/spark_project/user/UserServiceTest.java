@@ -3,7 +3,10 @@ package com.example.spark_project.user;
 import com.example.spark_project.exception.InvalidPasswordResetTokenException;
 import com.example.spark_project.exception.InvalidRepeatedPasswordException;
 import com.example.spark_project.exception.UserAlreadyExistsException;
+import com.example.spark_project.security.AuthenticatedUser;
 import com.example.spark_project.security.JwtService;
+import com.example.spark_project.security.PasswordHashingService;
+import com.example.spark_project.security.TokenRevocationService;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +14,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -25,6 +29,7 @@ import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -45,6 +50,12 @@ class UserServiceTest {
     @Mock
     private JavaMailSender mailSender;
 
+    @Mock
+    private TokenRevocationService tokenRevocationService;
+
+    @Spy
+    private PasswordHashingService passwordHashingService = new PasswordHashingService(1, 10);
+
     @InjectMocks
     private UserService userService;
 
@@ -88,12 +99,17 @@ class UserServiceTest {
         when(userRepository.existsByEmail(registerRequest.getEmail())).thenReturn(false);
         when(userRepository.save(any(User.class))).thenReturn(user);
         when(jwtService.generateToken(any())).thenReturn(token);
+        clearInvocations(passwordEncoder);
+        when(passwordEncoder.encode(registerRequest.getPassword())).thenReturn("hash");
 
         AuthenticationResponse response = userService.register(registerRequest);
 
         // then
         assertThat(response).isNotNull();
         assertThat(response.getToken()).isEqualTo(token);
+        verify(passwordEncoder, times(1)).encode(registerRequest.getPassword());
+        verify(userRepository).save(argThat(saved -> "hash".equals(saved.getPassword())
+                && "hash".equals(saved.getRepeatPassword())));
     }
 
     @Test
@@ -212,6 +228,16 @@ class UserServiceTest {
         verify(userRepository, times(1)).existsByResetPasswordToken(resetToken);
         verify(userRepository, times(1)).findByResetPasswordToken(resetToken);
         verify(userRepository, times(1)).save(user);
+        verify(tokenRevocationService, times(1)).revoke(user.getId());
+    }
+
+    @Test
+    void testLogoutShouldRevokeTokensOfUser() {
+        // when
+        userService.logout(AuthenticatedUser.from(user));
+
+        // then
+        verify(tokenRevocationService, times(1)).revoke(user.getId());
     }
 
     @Test